@@ -0,0 +1,220 @@
+package nosql.projects;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import nosql.projects.Material.KVStore;
+import nosql.projects.Material.MvmMetrics;
+import nosql.projects.Material.RecordVersionList;
+import nosql.projects.Material.Serializer;
+import nosql.projects.Material.VersionList;
+import nosql.projects.Material.VersionListFactory;
+import nosql.projects.Material.VersionedRecord;
+
+/**
+ * Creates version lists that start out as the cheap {@link BackedVLinkedList} and are promoted to
+ * a {@link BackedFrugalSkiplist} once a key collects promoteAtVersions versions or a lookup has to
+ * walk promoteAtProbeDepth nodes. The skiplist is built in the background next to the linked list;
+ * readers keep using the linked list until the finished skiplist is swapped in.
+ *
+ * The background copy reads and writes the store under the list's {@link PrefixedKVStore} view
+ * directly, past any batch the owning map has open, and sees only versions that are stored. The
+ * swap runs on the next append or lookup instead: it copies the versions added since, and switches
+ * the kind key, through the list's own store, so inside a commit both are part of its batch and a
+ * failed commit leaves the list a linked list.
+ *
+ * Every promotion attempt builds its skiplist under a fresh generation prefix, and a single write
+ * of the kind key switches to it, so an attempt that failed or crashed leaves nothing a retry or a
+ * reopen would pick up.
+ */
+public final class AdaptiveVersionListFactory<P> implements VersionListFactory<P>, AutoCloseable {
+    private static final String KIND_KEY = "__adaptive__";
+    private static final String GENERATION_KEY = "__adaptive_gen__";
+    // followed by the generation the skiplist was built under
+    private static final String SKIPLIST = "FSL:";
+
+    private final int promoteAtVersions;
+    private final int promoteAtProbeDepth;
+    private final ExecutorService migrations = Executors.newVirtualThreadPerTaskExecutor();
+
+    public AdaptiveVersionListFactory(int promoteAtVersions, int promoteAtProbeDepth) {
+        if (promoteAtVersions < 1 || promoteAtProbeDepth < 1)
+            throw new IllegalArgumentException("Thresholds must be positive");
+        this.promoteAtVersions = promoteAtVersions;
+        this.promoteAtProbeDepth = promoteAtProbeDepth;
+    }
+
+    @Override
+    public VersionList<P> create(KVStore store, Serializer<P> serializer) {
+        return create(store, serializer, MvmMetrics.DISABLED);
+    }
+
+    @Override
+    public VersionList<P> create(KVStore store, Serializer<P> serializer, MvmMetrics metrics) {
+        return new AdaptiveVersionList(store, serializer, metrics);
+    }
+
+    @Override
+    public void close() {
+        migrations.close();
+    }
+
+    private final class AdaptiveVersionList implements RecordVersionList<P> {
+        private final KVStore store;
+        private final Serializer<P> serializer;
+        private final MvmMetrics metrics;
+        // the store without the owning map's write batch, for the background copy
+        private final KVStore direct;
+        private final BackedVLinkedList<P> linked;
+        private volatile RecordVersionList<P> active;
+        private volatile int maxProbeDepth;
+        private long versions;
+        private boolean promoting;
+        // set by the background copy: generation and newest version it copied
+        private volatile String builtGeneration;
+        private volatile long builtThrough;
+
+        AdaptiveVersionList(KVStore store, Serializer<P> serializer, MvmMetrics metrics) {
+            this.store = store;
+            this.serializer = serializer;
+            this.metrics = metrics;
+            this.direct = (store instanceof PrefixedKVStore prefixed) ? prefixed.unbuffered() : store;
+            String kind = store.get(KIND_KEY);
+            if (kind != null && kind.startsWith(SKIPLIST)) {
+                this.linked = null;
+                this.active = new BackedFrugalSkiplist<>(skiplistStore(store, kind.substring(SKIPLIST.length())), serializer, metrics);
+            } else {
+                this.linked = new BackedVLinkedList<>(new PrefixedKVStore(store, "L:"), serializer, new ProbeDepth());
+                this.active = linked;
+                // nothing beyond the threshold matters, so a reopened list counts at most that far
+                this.versions = linked.countUpTo(promoteAtVersions);
+            }
+        }
+
+        @Override
+        public synchronized void append(P p, long timestamp) {
+            if (builtGeneration != null)
+                swapIn();
+            active.append(p, timestamp);
+            versions++;
+            maybePromote();
+        }
+
+        @Override
+        public P findVisible(long timestamp) {
+            VersionedRecord visible = findVisibleRecord(timestamp);
+            return (visible == null) ? null : serializer.deSerialize(visible.payload());
+        }
+
+        @Override
+        public VersionedRecord findVisibleRecord(long timestamp) {
+            VersionedRecord visible = active.findVisibleRecord(timestamp);
+            if (active == linked && (builtGeneration != null || maxProbeDepth >= promoteAtProbeDepth)) {
+                synchronized (this) {
+                    if (builtGeneration != null)
+                        swapIn();
+                    else
+                        maybePromote();
+                }
+            }
+            return visible;
+        }
+
+        @Override
+        public VersionedRecord readVersion(long version) {
+            return active.readVersion(version);
+        }
+
+        private void maybePromote() {
+            if (promoting || active != linked)
+                return;
+            if (versions >= promoteAtVersions || maxProbeDepth >= promoteAtProbeDepth) {
+                promoting = true;
+                migrations.execute(this::promote);
+            }
+        }
+
+        // runs in the background; touches only the direct store
+        private void promote() {
+            try {
+                String generation = nextGeneration();
+                BackedFrugalSkiplist<P> skiplist = new BackedFrugalSkiplist<>(skiplistStore(direct, generation), serializer, metrics);
+                BackedVLinkedList<P> stored = BackedVLinkedList.reader(new PrefixedKVStore(direct, "L:"), serializer, metrics);
+                builtThrough = copyOldestFirst(stored.newerThan(Long.MIN_VALUE), skiplist, Long.MIN_VALUE);
+                builtGeneration = generation;
+            } catch (RuntimeException exception) {
+                synchronized (this) {
+                    promoting = false;
+                }
+                throw exception;
+            }
+        }
+
+        // caller holds the lock; catches up on versions appended since the copy and switches to it
+        private void swapIn() {
+            String generation = builtGeneration;
+            builtGeneration = null;
+            try {
+                BackedFrugalSkiplist<P> skiplist = new BackedFrugalSkiplist<>(skiplistStore(store, generation), serializer, metrics);
+                copyOldestFirst(linked.newerThan(builtThrough), skiplist, builtThrough);
+                store.put(KIND_KEY, SKIPLIST + generation);
+                active = skiplist;
+            } catch (RuntimeException exception) {
+                // a later promotion starts over under a new generation
+                promoting = false;
+                throw exception;
+            }
+        }
+
+        private KVStore skiplistStore(KVStore base, String generation) {
+            return new PrefixedKVStore(base, "S" + generation + ":");
+        }
+
+        private String nextGeneration() {
+            String last = direct.get(GENERATION_KEY);
+            String generation = String.valueOf((last == null) ? 1L : Long.parseLong(last) + 1);
+            direct.put(GENERATION_KEY, generation);
+            return generation;
+        }
+
+        private long copyOldestFirst(List<VersionedRecord> newestFirst, BackedFrugalSkiplist<P> skiplist, long copied) {
+            for (int i = newestFirst.size() - 1; i >= 0; i--) {
+                VersionedRecord record = newestFirst.get(i);
+                skiplist.appendSerialized(record.payload(), record.version());
+                copied = record.version();
+            }
+            return copied;
+        }
+
+        /** Forwards to the real metrics and remembers the deepest probe of the linked list. */
+        private final class ProbeDepth implements MvmMetrics {
+            @Override
+            public boolean enabled() {
+                return metrics.enabled();
+            }
+
+            @Override
+            public void hops(int hops) {
+                if (hops > maxProbeDepth)
+                    maxProbeDepth = hops;
+                metrics.hops(hops);
+            }
+
+            @Override
+            public void storeGets(int count) {
+                metrics.storeGets(count);
+            }
+
+            @Override
+            public void storePuts(int count) {
+                metrics.storePuts(count);
+            }
+
+            @Override
+            public void serialization(long nanos) {
+                metrics.serialization(nanos);
+            }
+        }
+    }
+}
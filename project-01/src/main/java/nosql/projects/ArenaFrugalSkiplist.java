@@ -0,0 +1,86 @@
+package nosql.projects;
+
+import java.util.Arrays;
+
+import nosql.projects.Material.KVStore;
+import nosql.projects.Material.Serializer;
+import nosql.projects.Material.VersionList;
+import nosql.projects.Material.VersionListFactory;
+
+/**
+ * {@link FrugalSkiplist} laid out in parallel primitive arrays: node i is ts[i], next[i],
+ * ridgy[i] and payloads[i], links are int indexes, -1 is null. Appends only allocate when the
+ * arena doubles, lookups never allocate.
+ */
+public final class ArenaFrugalSkiplist<P> implements VersionList<P> {
+    private static final int NIL = -1;
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private long[] ts;
+    private int[] next;
+    private int[] ridgy;
+    private Object[] payloads;
+    private int size;
+    private int head = NIL;
+    private final int[] lastAtLevel = new int[Long.SIZE];
+
+    public ArenaFrugalSkiplist() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ArenaFrugalSkiplist(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.ts = new long[capacity];
+        this.next = new int[capacity];
+        this.ridgy = new int[capacity];
+        this.payloads = new Object[capacity];
+        Arrays.fill(lastAtLevel, NIL);
+    }
+
+    /**
+     * In-memory lists ignore the store and serializer they are created with.
+     */
+    public static <P> VersionListFactory<P> factory() {
+        return (KVStore store, Serializer<P> serializer) -> new ArenaFrugalSkiplist<>();
+    }
+
+    @Override
+    public void append(P point, long timeStamp) {
+        if (size == ts.length)
+            grow();
+        int node = size++;
+        // size is the 1-based count of the new node, as in FrugalSkiplist
+        int level = Integer.numberOfTrailingZeros(size);
+
+        ts[node] = timeStamp;
+        payloads[node] = point;
+        next[node] = head;
+        ridgy[node] = lastAtLevel[level];
+
+        head = node;
+        lastAtLevel[level] = node;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public P findVisible(long t) {
+        int current = head;
+        while (current != NIL && ts[current] > t) {
+            int r = ridgy[current];
+            current = (r != NIL && ts[r] > t) ? r : next[current];
+        }
+        return (current != NIL) ? (P) payloads[current] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        int capacity = ts.length * 2;
+        ts = Arrays.copyOf(ts, capacity);
+        next = Arrays.copyOf(next, capacity);
+        ridgy = Arrays.copyOf(ridgy, capacity);
+        payloads = Arrays.copyOf(payloads, capacity);
+    }
+}
@@ -0,0 +1,300 @@
+package nosql.projects;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nosql.projects.Material.AsyncKVStore;
+import nosql.projects.Material.AsyncMultiVersionMap;
+import nosql.projects.Material.Serializer;
+
+/**
+ * Non-blocking MultiVersionMap: one frugal skiplist per key (same node layout as
+ * {@link BackedFrugalSkiplist}, namespaced like {@link BackedVWeaverMVM}), every store access is an
+ * {@link AsyncKVStore} call chained with CompletableFuture instead of a blocking round trip.
+ *
+ * Writes of different keys complete in any order, and a commit moves its heads one by one. Reads
+ * are therefore clamped to {@link #stable()}, which only passes a version once every head written
+ * under it and under all older versions is installed. A read at the version an append just
+ * returned sees it once no older write is still in flight.
+ */
+public final class AsyncBackedMVM<K extends Comparable<? super K>, P> implements AsyncMultiVersionMap<K, P>, AutoCloseable {
+    private static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private static final class NodeRecord {
+        public long ts;
+        public String payload;
+        public String nextKey;
+        public String ridgyKey;
+
+        @SuppressWarnings("unused")
+        public NodeRecord() {}
+
+        public NodeRecord(long ts, String payload, String nextKey, String ridgyKey) {
+            this.ts = ts;
+            this.payload = payload;
+            this.nextKey = nextKey;
+            this.ridgyKey = ridgyKey;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private static final class Meta {
+        public String headKey;
+        public long count;
+        public List<String> lastAtLevel;
+
+        @SuppressWarnings("unused")
+        public Meta() {}
+
+        public Meta(String headKey, long count, List<String> lastAtLevel) {
+            this.headKey = headKey;
+            this.count = count;
+            this.lastAtLevel = lastAtLevel;
+        }
+    }
+
+    private final class ListHandle {
+        private final String prefix;
+        // only ever replaced by a write stage, once its node and meta are in the store
+        private Meta meta = new Meta(null, 0L, new ArrayList<>());
+        // Writes of one key are chained, so the head only moves once its node is in the store.
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private volatile String durableHead;
+
+        ListHandle(K mapKey) {
+            this.prefix = "AS:" + mapKey + ":";
+        }
+
+        synchronized CompletableFuture<Long> append(String payloadStr) {
+            final long v = clock.reserve();
+            CompletableFuture<Void> written = chain(v, payloadStr).thenAccept(this::install)
+                    .whenComplete((ignored, failure) -> clock.publish(v));
+            tail = written;
+            return written.thenApply(ignored -> v);
+        }
+
+        /**
+         * Writes v's node and meta after the previous write of this key; the head only moves once
+         * the caller installs the returned meta.
+         */
+        synchronized CompletableFuture<Meta> chain(long v, String payloadStr) {
+            // a failed write fails its own append only; the next one links to the last stored node
+            return tail.handle((ignored, previousFailure) -> null)
+                    .thenCompose(ignored -> write(v, payloadStr));
+        }
+
+        /** Makes the next write of this key wait for done. */
+        synchronized void waitFor(CompletableFuture<Void> done) {
+            tail = done;
+        }
+
+        private void install(Meta next) {
+            meta = next;
+            durableHead = next.headKey;
+        }
+
+        private CompletableFuture<Meta> write(long v, String payloadStr) {
+            final Meta next = new Meta(meta.headKey, meta.count + 1, new ArrayList<>(meta.lastAtLevel));
+            int level = Long.numberOfTrailingZeros(next.count);
+            while (next.lastAtLevel.size() <= level) {
+                next.lastAtLevel.add(null);
+            }
+
+            final String newKey = String.valueOf(v);
+            final NodeRecord record = new NodeRecord(v, payloadStr, next.headKey, next.lastAtLevel.get(level));
+            next.headKey = newKey;
+            next.lastAtLevel.set(level, newKey);
+
+            final String nodeJson;
+            final String metaJson;
+            try {
+                nodeJson = oMapper.writeValueAsString(record);
+                metaJson = oMapper.writeValueAsString(next);
+            } catch (Exception exception) {
+                return CompletableFuture.failedFuture(new RuntimeException("Append failed", exception));
+            }
+
+            return store.putAsync(prefix + newKey, nodeJson)
+                    .thenCompose(ignored -> store.putAsync(prefix + "__meta__", metaJson))
+                    .thenApply(ignored -> next);
+        }
+
+        CompletableFuture<NodeRecord> findVisible(long t) {
+            return readNode(durableHead).thenCompose(head -> visibleFrom(head, t));
+        }
+
+        private CompletableFuture<NodeRecord> visibleFrom(NodeRecord current, long t) {
+            if (current == null || current.ts <= t)
+                return CompletableFuture.completedFuture(current);
+            if (current.ridgyKey != null) {
+                return readNode(current.ridgyKey).thenCompose(ridgy -> (ridgy != null && ridgy.ts > t)
+                        ? visibleFrom(ridgy, t)
+                        : readNode(current.nextKey).thenCompose(next -> visibleFrom(next, t)));
+            }
+            return readNode(current.nextKey).thenCompose(next -> visibleFrom(next, t));
+        }
+
+        private CompletableFuture<NodeRecord> readNode(String localKey) {
+            if (localKey == null || localKey.isEmpty())
+                return CompletableFuture.completedFuture(null);
+            return store.getAsync(prefix + localKey).thenApply(json -> {
+                if (json == null)
+                    throw new IllegalStateException("Missing node " + prefix + localKey);
+                try {
+                    return oMapper.readValue(json, NodeRecord.class);
+                } catch (Exception exception) {
+                    throw new RuntimeException("Corrupt node " + prefix + localKey, exception);
+                }
+            });
+        }
+    }
+
+    private final ObjectMapper oMapper = new ObjectMapper();
+    private final AsyncKVStore store;
+    private final Serializer<P> serializer;
+    private final ConcurrentSkipListMap<K, ListHandle> lists = new ConcurrentSkipListMap<>();
+    // versions stay reserved until their heads are installed or their writes failed
+    private final VersionClock clock = new VersionClock();
+    // appends share it, a commit takes it alone while it draws its version and chains its writes
+    private final ReadWriteLock versionLock = new ReentrantReadWriteLock();
+    private final ExecutorService publisherExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final int maxInFlight;
+
+    public AsyncBackedMVM(AsyncKVStore store, Serializer<P> serializer) {
+        this(store, serializer, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public AsyncBackedMVM(AsyncKVStore store, Serializer<P> serializer, int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        this.store = Objects.requireNonNull(store);
+        this.serializer = Objects.requireNonNull(serializer);
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return the newest version at which every write is either installed or failed; reads at a
+     *         later timestamp are served at this one
+     */
+    public long stable() {
+        return clock.stable();
+    }
+
+    @Override
+    public CompletableFuture<Map.Entry<K, P>> getAsync(K k, long t) {
+        ListHandle h = lists.get(k);
+        if (h == null)
+            return CompletableFuture.completedFuture(null);
+        return visibleEntry(k, h, Math.min(t, clock.stable()));
+    }
+
+    @Override
+    public CompletableFuture<Long> appendAsync(K k, P p) {
+        String payloadStr = serializer.serialize(p);
+        ListHandle h = lists.computeIfAbsent(k, ListHandle::new);
+        versionLock.readLock().lock();
+        try {
+            return h.append(payloadStr);
+        } finally {
+            versionLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes every key of the batch under one version, each after the earlier writes of its key.
+     * The heads of all keys are installed once every write is stored, and the following writes of
+     * these keys wait until then; the version only becomes stable after the last head is in. If a
+     * write fails, no head moves and the future fails.
+     */
+    @Override
+    public CompletableFuture<Long> commitAsync(Map<K, P> batch) {
+        if (batch.isEmpty())
+            throw new IllegalArgumentException("Empty batch");
+        List<ListHandle> handles = new ArrayList<>(batch.size());
+        List<String> payloads = new ArrayList<>(batch.size());
+        for (Map.Entry<K, P> e : batch.entrySet()) {
+            handles.add(lists.computeIfAbsent(e.getKey(), ListHandle::new));
+            payloads.add(serializer.serialize(e.getValue()));
+        }
+        versionLock.writeLock().lock();
+        try {
+            // no append draws a version until every write of v is chained
+            long v = clock.reserve();
+            List<CompletableFuture<Meta>> written = new ArrayList<>(handles.size());
+            for (int i = 0; i < handles.size(); i++) {
+                written.add(handles.get(i).chain(v, payloads.get(i)));
+            }
+            CompletableFuture<Void> installed = CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0]))
+                    .thenRun(() -> {
+                        for (int i = 0; i < handles.size(); i++) {
+                            handles.get(i).install(written.get(i).join());
+                        }
+                    })
+                    .whenComplete((ignored, failure) -> clock.publish(v));
+            for (ListHandle h : handles) {
+                h.waitFor(installed);
+            }
+            return installed.thenApply(ignored -> v);
+        } finally {
+            versionLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Flow.Publisher<Map.Entry<K, P>> rangeSnapshotAsync(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp) {
+        return subscriber -> {
+            SubmissionPublisher<Map.Entry<K, P>> publisher = new SubmissionPublisher<>(publisherExecutor, maxInFlight);
+            publisher.subscribe(subscriber);
+            long t = Math.min(timestamp, clock.stable());
+            publisherExecutor.execute(() -> {
+                try {
+                    ArrayDeque<CompletableFuture<Map.Entry<K, P>>> window = new ArrayDeque<>(maxInFlight);
+                    for (Map.Entry<K, ListHandle> e : lists.subMap(fromKey, fromInclusive, toKey, toInclusive).entrySet()) {
+                        window.add(visibleEntry(e.getKey(), e.getValue(), t));
+                        if (window.size() >= maxInFlight)
+                            emit(publisher, window.poll().join());
+                    }
+                    while (!window.isEmpty()) {
+                        emit(publisher, window.poll().join());
+                    }
+                    publisher.close();
+                } catch (Exception exception) {
+                    publisher.closeExceptionally(exception);
+                }
+            });
+        };
+    }
+
+    private CompletableFuture<Map.Entry<K, P>> visibleEntry(K k, ListHandle h, long t) {
+        return h.findVisible(t).thenApply(record -> (record == null)
+                ? null
+                : new SimpleImmutableEntry<>(k, serializer.deSerialize(record.payload)));
+    }
+
+    private static <E> void emit(SubmissionPublisher<E> publisher, E entry) {
+        // submit blocks while the subscriber's buffer is full, which throttles further lookups.
+        if (entry != null)
+            publisher.submit(entry);
+    }
+
+    @Override
+    public void close() {
+        publisherExecutor.close();
+    }
+}
@@ -10,24 +10,30 @@ import nosql.projects.Material.KVStore;
 import nosql.projects.Material.VersionList;
 import nosql.projects.Material.*;
 
-public final class BackedFrugalSkiplist<P> implements VersionList<P> {
+public final class BackedFrugalSkiplist<P> implements RecordVersionList<P> {
 
     private static final String META_KEY = "__frugal_meta__";
+    // Every node is at level 0 or above, so every node is a keyframe.
+    private static final int NO_DELTAS = 0;
 
+    @JsonIgnoreProperties(ignoreUnknown = true)
     private static final class NodeRecord {
         public long ts;
         public String payload;
         public String nextKey;
         public String ridgyKey;
+        // Keyframe this node's payload is a delta against; null if payload is complete.
+        public String baseKey;
 
         @SuppressWarnings("unused")
         public NodeRecord() {}
 
-        public NodeRecord(long ts, String payload, String nextKey, String ridgyKey) {
+        public NodeRecord(long ts, String payload, String nextKey, String ridgyKey, String baseKey) {
             this.ts = ts;
             this.payload = payload;
             this.nextKey = nextKey;
             this.ridgyKey = ridgyKey;
+            this.baseKey = baseKey;
         }
     }
 
@@ -36,6 +42,7 @@ public final class BackedFrugalSkiplist<P> implements VersionList<P> {
         public String headKey;
         public long count;
         public List<String> lastAtLevel;
+        public String keyframeKey;
 
         @SuppressWarnings("unused")
         public Meta() {}
@@ -49,18 +56,39 @@ public final class BackedFrugalSkiplist<P> implements VersionList<P> {
 
     private final KVStore store;
     private final Serializer<P> serializer;
+    private final MvmMetrics metrics;
     private final ObjectMapper oMapper = new ObjectMapper();
+    private final int keyframeLevel;
 
     private Meta meta;
+    private String keyframePayload;
 
     public BackedFrugalSkiplist(KVStore store, Serializer<P> serializer) {
+        this(store, serializer, MvmMetrics.DISABLED);
+    }
+
+    public BackedFrugalSkiplist(KVStore store, Serializer<P> serializer, MvmMetrics metrics) {
+        this(store, serializer, metrics, NO_DELTAS);
+    }
+
+    /**
+     * Stores only every node of level keyframeLevel or above (one in 2^keyframeLevel) with its full
+     * payload; the nodes in between hold a delta against the latest such keyframe. Reading a delta
+     * node costs one extra store get for its keyframe, however long the list grows.
+     */
+    public BackedFrugalSkiplist(KVStore store, Serializer<P> serializer, MvmMetrics metrics, int keyframeLevel) {
+        if (keyframeLevel < 0 || keyframeLevel >= Long.SIZE)
+            throw new IllegalArgumentException("keyframeLevel must be between 0 and 63");
         this.store = store;
         this.serializer = serializer;
+        this.metrics = metrics;
+        this.keyframeLevel = keyframeLevel;
         String m = store.get(META_KEY);
+        metrics.storeGets(1);
 
         if (m == null) {
             this.meta = new Meta(null, 0L, new ArrayList<>());
-            persistMeta();
+            persistMeta(meta);
         } else {
             try {
                 this.meta = oMapper.readValue(m, Meta.class);
@@ -72,26 +100,71 @@ public final class BackedFrugalSkiplist<P> implements VersionList<P> {
         }
     }
 
+    public static <P> VersionListFactory<P> factory() {
+        return factory(NO_DELTAS);
+    }
+
+    /**
+     * @param keyframeLevel see {@link #BackedFrugalSkiplist(KVStore, Serializer, MvmMetrics, int)}
+     */
+    public static <P> VersionListFactory<P> factory(int keyframeLevel) {
+        return new VersionListFactory<>() {
+            @Override
+            public VersionList<P> create(KVStore store, Serializer<P> serializer) {
+                return new BackedFrugalSkiplist<>(store, serializer, MvmMetrics.DISABLED, keyframeLevel);
+            }
+
+            @Override
+            public VersionList<P> create(KVStore store, Serializer<P> serializer, MvmMetrics metrics) {
+                return new BackedFrugalSkiplist<>(store, serializer, metrics, keyframeLevel);
+            }
+        };
+    }
+
     @Override
     public void append(P point, long timeStamp) {
+        appendSerialized(serializer.serialize(point), timeStamp);
+    }
+
+    // The new meta is built aside and only replaces the current one once node and meta are stored,
+    // so a failed put leaves the list as it was.
+    void appendSerialized(String payloadStr, long timeStamp) {
         try {
-            meta.count++;
-            int level = Long.numberOfTrailingZeros(meta.count);
+            long count = meta.count + 1;
+            int level = Long.numberOfTrailingZeros(count);
+            List<String> lastAtLevel = new ArrayList<>(meta.lastAtLevel);
 
-            while (meta.lastAtLevel.size() <= level) {
-                meta.lastAtLevel.add(null);
+            while (lastAtLevel.size() <= level) {
+                lastAtLevel.add(null);
             }
 
             final String newKey = String.valueOf(timeStamp);
             final String prevHead = meta.headKey;
-            final String ridgy = meta.lastAtLevel.get(level);
+            final String ridgy = lastAtLevel.get(level);
 
-            NodeRecord record = new NodeRecord(timeStamp, serializer.serialize(point), prevHead, ridgy);
+            NodeRecord record;
+            String keyframeKey = meta.keyframeKey;
+            String newKeyframePayload = keyframePayload;
+            if (level >= keyframeLevel || keyframeKey == null) {
+                record = new NodeRecord(timeStamp, payloadStr, prevHead, ridgy, null);
+                keyframeKey = newKey;
+                newKeyframePayload = payloadStr;
+            } else {
+                if (keyframePayload == null)
+                    keyframePayload = readNode(keyframeKey).payload;
+                newKeyframePayload = keyframePayload;
+                String delta = PayloadDelta.encode(keyframePayload, payloadStr);
+                record = new NodeRecord(timeStamp, delta, prevHead, ridgy, keyframeKey);
+            }
 
             store.put(newKey, oMapper.writeValueAsString(record));
-            meta.headKey = newKey;
-            meta.lastAtLevel.set(level, newKey);
-            persistMeta();
+            metrics.storePuts(1);
+            lastAtLevel.set(level, newKey);
+            Meta next = new Meta(newKey, count, lastAtLevel);
+            next.keyframeKey = keyframeKey;
+            persistMeta(next);
+            meta = next;
+            keyframePayload = newKeyframePayload;
         } catch (Exception exception) {
             throw new RuntimeException("Append failed", exception);
         }
@@ -99,17 +172,28 @@ public final class BackedFrugalSkiplist<P> implements VersionList<P> {
 
     @Override
     public P findVisible(long t) {
+        VersionedRecord visible = findVisibleRecord(t);
+        return (visible == null) ? null : serializer.deSerialize(visible.payload());
+    }
+
+    @Override
+    public VersionedRecord findVisibleRecord(long t) {
+        if (store instanceof TraversableKVStore traversable && traversable.traversalSupported())
+            return findVisibleInStore(traversable, t);
+        int hops = 0;
         try {
             String key = meta.headKey;
             while (key != null && !key.isEmpty()) {
                 NodeRecord record = readNode(key);
+                hops++;
                 if (record.ts <= t) 
-                    return serializer.deSerialize(record.payload);
+                    return new VersionedRecord(record.ts, fullPayload(record));
 
                 if (record.ridgyKey != null) {
                     NodeRecord rec = readNode(record.ridgyKey);
+                    hops++;
                     if (rec.ts > t) {
-                        key = rec.ridgyKey;
+                        key = record.ridgyKey;
                         continue;
                     }
                 }
@@ -118,23 +202,74 @@ public final class BackedFrugalSkiplist<P> implements VersionList<P> {
             return null;
         } catch (Exception exception) {
             throw new RuntimeException("Find Visible failed", exception);
+        } finally {
+            metrics.hops(hops);
         }
     }
 
+    @Override
+    public VersionedRecord readVersion(long version) {
+        // nodes are stored under their version, so no walk is needed
+        String json = store.get(String.valueOf(version));
+        metrics.storeGets(1);
+        if (json == null)
+            return null;
+        try {
+            NodeRecord record = oMapper.readValue(json, NodeRecord.class);
+            return new VersionedRecord(record.ts, fullPayload(record));
+        } catch (Exception exception) {
+            throw new RuntimeException("Corrupt node" + version, exception);
+        }
+    }
+
+    /**
+     * @return the newest version in this list, or Long.MIN_VALUE if it is empty
+     */
+    long latestVersion() {
+        // node keys are their versions
+        return (meta.headKey == null || meta.headKey.isEmpty()) ? Long.MIN_VALUE : Long.parseLong(meta.headKey);
+    }
+
+    // The store walks the chain itself: one round trip, plus one for the keyframe of a delta node.
+    private VersionedRecord findVisibleInStore(TraversableKVStore traversable, long t) {
+        String json = traversable.findVisible(meta.headKey, "", t);
+        metrics.storeGets(1);
+        if (json == null)
+            return null;
+        try {
+            NodeRecord record = oMapper.readValue(json, NodeRecord.class);
+            return new VersionedRecord(record.ts, fullPayload(record));
+        } catch (Exception exception) {
+            throw new RuntimeException("Find Visible failed", exception);
+        }
+    }
+
+    private String fullPayload(NodeRecord record) {
+        if (record.baseKey == null)
+            return record.payload;
+        return PayloadDelta.apply(readNode(record.baseKey).payload, record.payload);
+    }
+
     private NodeRecord readNode(String key) {
         try {
             String json = store.get(key);
+            metrics.storeGets(1);
             if (json == null)
                 throw new IllegalStateException("Missing Node" + key);
-            return oMapper.readValue(json, NodeRecord.class);    
+            long start = metrics.enabled() ? System.nanoTime() : 0L;
+            NodeRecord record = oMapper.readValue(json, NodeRecord.class);
+            if (start != 0L)
+                metrics.serialization(System.nanoTime() - start);
+            return record;
         } catch (Exception exception) {
             throw new RuntimeException("Corrupt node" + key, exception);
         }
     }
 
-    private void persistMeta() {
+    private void persistMeta(Meta meta) {
         try {
             store.put(META_KEY, oMapper.writeValueAsString(meta));
+            metrics.storePuts(1);
         } catch (Exception exception) {
             throw new RuntimeException("Persist meta failed", exception);
         }
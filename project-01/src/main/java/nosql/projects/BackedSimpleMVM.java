@@ -2,54 +2,256 @@ package nosql.projects;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
 
 import nosql.projects.Material.KVStore;
 import nosql.projects.Material.MultiVersionMap;
+import nosql.projects.Material.MvmMetrics;
+import nosql.projects.Material.RecordVersionList;
+import nosql.projects.Material.ReusableEntry;
 import nosql.projects.Material.Serializer;
 import nosql.projects.Material.VersionList;
 import nosql.projects.Material.VersionListFactory;
+import nosql.projects.Material.VersionedRecord;
 
 public final class BackedSimpleMVM<K extends Comparable<? super K>, P> implements MultiVersionMap<K, P> {
     private final TreeMap<K, VersionList<P>> index = new TreeMap<>();
     private final VersionListFactory<P> factory;
-    private final KVStore store;
+    // every write goes through here, so a commit can send all of them at once
+    private final WriteBatchKVStore writes;
     private final Serializer<P> serializer;
-
-    private long version = 1L;
+    private final VersionClock clock;
+    private final KeyCatalog<K> catalog = new KeyCatalog<>();
+    private MvmMetrics metrics = MvmMetrics.DISABLED;
+    private Serializer<P> listSerializer;
+    private PayloadCache<K, P> payloadCache;
+    private LatestView<K, P> latestView;
+    private SnapshotCheckpoints<K> checkpoints;
+    private int aggregateParallelism = 1;
 
     public BackedSimpleMVM(VersionListFactory<P> factory, KVStore store, Serializer<P> serializer) {
+        this(factory, store, serializer, new VersionClock());
+    }
+
+    public BackedSimpleMVM(VersionListFactory<P> factory, KVStore store, Serializer<P> serializer, VersionClock clock) {
         this.factory = Objects.requireNonNull(factory);
-        this.store = Objects.requireNonNull(store);
+        this.writes = new WriteBatchKVStore(Objects.requireNonNull(store));
         this.serializer = Objects.requireNonNull(serializer);
+        this.clock = Objects.requireNonNull(clock);
+        this.listSerializer = serializer;
+    }
+
+    /**
+     * Reports to metrics from now on. Must be called before the first append, since the version
+     * lists receive their metrics when they are created.
+     */
+    public BackedSimpleMVM<K, P> withMetrics(MvmMetrics metrics) {
+        if (!index.isEmpty())
+            throw new IllegalStateException("Metrics must be set before the first append");
+        this.metrics = Objects.requireNonNull(metrics);
+        this.listSerializer = TimedSerializer.wrap(serializer, metrics);
+        return this;
+    }
+
+    /**
+     * Serves repeated reads of the same (key, version) from cache instead of deserializing again.
+     * Takes effect for version lists that expose their records (see {@link RecordVersionList}).
+     */
+    public BackedSimpleMVM<K, P> withPayloadCache(PayloadCache<K, P> cache) {
+        this.payloadCache = Objects.requireNonNull(cache);
+        return this;
+    }
+
+    /**
+     * Keeps a materialized table of every key's newest version, so reads at or after a key's
+     * newest version skip the version list. Must be called before the first append.
+     */
+    public BackedSimpleMVM<K, P> withLatestView(LatestView.Mode mode) {
+        if (!index.isEmpty())
+            throw new IllegalStateException("The latest view must be enabled before the first append");
+        this.latestView = new LatestView<>(mode, writes, listSerializer);
+        return this;
+    }
+
+    /**
+     * Writes a checkpoint of every key's newest version after each everyAppends appends, so that
+     * snapshot(t) reads each key's visible version directly instead of walking back from its head.
+     * Must be called before the first append.
+     */
+    public BackedSimpleMVM<K, P> withCheckpoints(int everyAppends) {
+        if (!index.isEmpty())
+            throw new IllegalStateException("Checkpoints must be enabled before the first append");
+        this.checkpoints = new SnapshotCheckpoints<>(writes, everyAppends);
+        return this;
+    }
+
+    /**
+     * Lets aggregates resolve up to parallelism key ranges concurrently. Aggregates must then not
+     * run concurrently with appends.
+     */
+    public BackedSimpleMVM<K, P> withAggregateParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.aggregateParallelism = parallelism;
+        return this;
     }
 
     @Override
     public Map.Entry<K, P> get(K k, long t) {
+        if (catalog.definitelyAbsent(k, t))
+            return null;
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
         VersionList<P> vl = index.get(k);
         if (vl == null)
             return null;
-        
-            P vis = vl.findVisible(t);
+        try {
+            P vis = (latestView != null && latestView.covers(k, t)) ? latestView.payload(k) : visible(k, vl, t);
             return (vis == null) ? null : new SimpleImmutableEntry<>(k, vis);
+        } finally {
+            if (start != 0L)
+                metrics.latency(MvmMetrics.Op.GET, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean get(K k, long t, ReusableEntry<K, P> into) {
+        if (catalog.definitelyAbsent(k, t))
+            return false;
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        VersionList<P> vl = index.get(k);
+        if (vl == null)
+            return false;
+        try {
+            P vis = (latestView != null && latestView.covers(k, t)) ? latestView.payload(k) : visible(k, vl, t);
+            if (vis == null)
+                return false;
+            into.set(k, vis);
+            return true;
+        } finally {
+            if (start != 0L)
+                metrics.latency(MvmMetrics.Op.GET, System.nanoTime() - start);
+        }
     }
 
     @Override
     public long append(K k, P p) {
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        long assigned = clock.next();
+        appendAt(k, p, assigned);
+        if (start != 0L)
+            metrics.latency(MvmMetrics.Op.APPEND, System.nanoTime() - start);
+        return assigned;
+    }
+
+    /**
+     * Appends the whole batch under one version. The lists' node and meta writes are buffered and
+     * sent as one batch once every key is appended; the version stays above the clock's stable
+     * version until then. If the batch cannot be stored, the map is left as it was before.
+     */
+    @Override
+    public long commit(Map<K, P> batch) {
+        if (batch.isEmpty())
+            throw new IllegalArgumentException("Empty batch");
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        long assigned = clock.reserve();
+        try {
+            writes.begin();
+            if (checkpoints != null)
+                checkpoints.begin();
+            try {
+                for (Map.Entry<K, P> e : batch.entrySet()) {
+                    appendToList(e.getKey(), e.getValue(), assigned);
+                    if (latestView != null)
+                        latestView.write(e.getKey(), e.getValue());
+                    if (checkpoints != null)
+                        checkpoints.recordAppend(e.getKey(), assigned);
+                }
+                writes.flush();
+                if (checkpoints != null)
+                    checkpoints.end();
+            } catch (RuntimeException exception) {
+                rollBack(batch.keySet());
+                throw exception;
+            }
+            // the rest of the in-memory state follows only once the batch is stored
+            for (Map.Entry<K, P> e : batch.entrySet()) {
+                record(e.getKey(), e.getValue(), assigned);
+            }
+        } finally {
+            clock.publish(assigned);
+        }
+        if (start != 0L)
+            metrics.latency(MvmMetrics.Op.APPEND, System.nanoTime() - start);
+        return assigned;
+    }
+
+    private void appendAt(K k, P p, long assigned) {
+        appendToList(k, p, assigned);
+        if (latestView != null)
+            latestView.write(k, p);
+        if (checkpoints != null)
+            checkpoints.recordAppend(k, assigned);
+        record(k, p, assigned);
+    }
+
+    private void appendToList(K k, P p, long assigned) {
         VersionList<P> vl = index.get(k);
         if (vl == null) {
-            vl = factory.create(store, serializer);
+            vl = openList(k);
             index.put(k, vl);
         }
-        long assigned = version++;
         vl.append(p, assigned);
-        return assigned;
+    }
+
+    private void record(K k, P p, long assigned) {
+        catalog.recordAppend(k, assigned);
+        if (latestView != null)
+            latestView.publish(k, assigned, p);
+    }
+
+    private VersionList<P> openList(K k) {
+        return factory.create(new PrefixedKVStore(writes, listPrefix(k)), listSerializer, metrics);
+    }
+
+    private String listPrefix(K k) {
+        return "SM:" + k + ":";
+    }
+
+    /**
+     * Undoes the appends of a commit whose batch was not stored. The store still holds every list
+     * as it was, so lists that wrote to the batch are opened from it again, lists created by the
+     * commit are dropped and checkpoints forget the appends. Lists kept only on heap cannot be
+     * rolled back and keep the version.
+     */
+    private void rollBack(Collection<K> keys) {
+        List<K> reopen = new ArrayList<>();
+        for (K k : keys) {
+            if (writes.buffersUnder(listPrefix(k)))
+                reopen.add(k);
+        }
+        writes.discard();
+        if (checkpoints != null)
+            checkpoints.rollBack();
+        for (K k : keys) {
+            // the catalog only learns of a key once a write of it is stored
+            if (catalog.definitelyAbsent(k, Long.MAX_VALUE))
+                index.remove(k);
+        }
+        for (K k : reopen) {
+            if (index.containsKey(k))
+                index.put(k, openList(k));
+        }
     }
 
     @Override
@@ -61,23 +263,200 @@ public final class BackedSimpleMVM<K extends Comparable<? super K>, P> implement
         if (sub.isEmpty())
             return Collections.<Map.Entry<K, P>> emptyList().iterator();
         
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        Map<K, P> current = (latestView == null) ? Collections.emptyMap() : latestView.visibleAt(sub.keySet(), timeStamp);
         List<Map.Entry<K, P>> out = new ArrayList<>(sub.size());
         for (Map.Entry<K, VersionList<P>> e : sub.entrySet()) {
-            P vis = e.getValue().findVisible(timeStamp);
+            if (timeStamp < catalog.firstVersion(e.getKey()))
+                continue;
+            P vis = current.get(e.getKey());
+            if (vis == null)
+                vis = visible(e.getKey(), e.getValue(), timeStamp);
             if (vis != null)
                 out.add(new SimpleImmutableEntry<>(e.getKey(), vis));
         }
+        if (start != 0L)
+            metrics.latency(MvmMetrics.Op.RANGE_SNAPSHOT, System.nanoTime() - start);
         return out.iterator();
     }
 
+    @Override
+    public void forEachVisible(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp, BiConsumer<? super K, ? super P> visitor) {
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        // Stepping with ceilingKey/higherKey avoids the subMap view and its entry iterator.
+        K k = fromInclusive ? index.ceilingKey(fromKey) : index.higherKey(fromKey);
+        while (k != null) {
+            int cmp = k.compareTo(toKey);
+            if (cmp > 0 || (cmp == 0 && !toInclusive))
+                break;
+            if (timeStamp < catalog.firstVersion(k)) {
+                k = index.higherKey(k);
+                continue;
+            }
+            P vis = (latestView != null && latestView.covers(k, timeStamp)) ? latestView.payload(k) : visible(k, index.get(k), timeStamp);
+            if (vis != null)
+                visitor.accept(k, vis);
+            k = index.higherKey(k);
+        }
+        if (start != 0L)
+            metrics.latency(MvmMetrics.Op.RANGE_SNAPSHOT, System.nanoTime() - start);
+    }
+
+    private Iterator<Map.Entry<K, P>> snapshotFromCheckpoint(long timeStamp) {
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        TreeMap<K, Long> versions = checkpoints.visibleVersions(timeStamp);
+        List<Map.Entry<K, P>> out = new ArrayList<>(versions.size());
+        for (Map.Entry<K, Long> e : versions.entrySet()) {
+            K k = e.getKey();
+            VersionList<P> vl = index.get(k);
+            P vis;
+            if (latestView != null && latestView.covers(k, timeStamp))
+                vis = latestView.payload(k);
+            else if (vl instanceof RecordVersionList<P> records)
+                vis = decode(k, records.readVersion(e.getValue()));
+            else
+                vis = vl.findVisible(timeStamp);
+            if (vis != null)
+                out.add(new SimpleImmutableEntry<>(k, vis));
+        }
+        if (start != 0L)
+            metrics.latency(MvmMetrics.Op.RANGE_SNAPSHOT, System.nanoTime() - start);
+        return out.iterator();
+    }
+
+    private P visible(K k, VersionList<P> vl, long t) {
+        if (payloadCache == null || !(vl instanceof RecordVersionList<P> records))
+            return vl.findVisible(t);
+
+        return decode(k, records.findVisibleRecord(t));
+    }
+
+    private P decode(K k, VersionedRecord record) {
+        if (record == null)
+            return null;
+        if (payloadCache == null)
+            return listSerializer.deSerialize(record.payload());
+        P cached = payloadCache.get(k, record.version());
+        if (cached != null) {
+            metrics.cacheHit("payload");
+            return cached;
+        }
+        metrics.cacheMiss("payload");
+        P decoded = listSerializer.deSerialize(record.payload());
+        payloadCache.put(k, record.version(), decoded, record.payload().length());
+        return decoded;
+    }
+
+    @Override
+    public List<Map.Entry<K, P>> rangeSnapshotPage(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp, int limit) {
+        List<Map.Entry<K, P>> page = new ArrayList<>(Math.min(limit, 1024));
+        if (limit <= 0)
+            return page;
+        // only resolves keys until the page is full
+        K k = fromInclusive ? index.ceilingKey(fromKey) : index.higherKey(fromKey);
+        while (k != null) {
+            int cmp = k.compareTo(toKey);
+            if (cmp > 0 || (cmp == 0 && !toInclusive))
+                break;
+            Map.Entry<K, P> visible = get(k, timeStamp);
+            if (visible != null) {
+                page.add(visible);
+                if (page.size() == limit)
+                    break;
+            }
+            k = index.higherKey(k);
+        }
+        return page;
+    }
+
     @Override
     public Iterator<Map.Entry<K, P>> snapshot(long timeStamp) {
         if (index.isEmpty()) 
             return Collections.<Map.Entry<K, P>> emptyList().iterator();
         
+        if (checkpoints != null)
+            return snapshotFromCheckpoint(timeStamp);
+
         K firstKey = index.firstKey();
         K lastKey = index.lastKey();
 
         return rangeSnapshot(firstKey, true, lastKey, true, timeStamp);
     }
-}
\ No newline at end of file
+
+    // A key never loses its versions, so it is visible at t iff its first version is <= t.
+    @Override
+    public long count(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp) {
+        if (index.isEmpty())
+            return 0;
+        long n = 0;
+        for (K k : index.subMap(fromKey, fromInclusive, toKey, toInclusive).keySet()) {
+            if (catalog.firstVersion(k) <= timeStamp)
+                n++;
+        }
+        return n;
+    }
+
+    @Override
+    public long count(long timeStamp) {
+        return catalog.keysVisibleAt(timeStamp);
+    }
+
+    // Runs of keys are disjoint, so each list is only read by one thread.
+    @Override
+    public <V> Optional<V> aggregate(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        if (index.isEmpty())
+            return Optional.empty();
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        Optional<V> result = ParallelAggregate.run(keysVisibleAt(fromKey, fromInclusive, toKey, toInclusive, timeStamp), aggregateParallelism,
+                run -> run.stream().map(k -> (latestView != null && latestView.covers(k, timeStamp)) ? latestView.payload(k) : visible(k, index.get(k), timeStamp)).iterator(),
+                extractor, combiner);
+        if (start != 0L)
+            metrics.latency(MvmMetrics.Op.RANGE_SNAPSHOT, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Like aggregate, but extractor reads the payloads as stored. Lists that keep records hand them
+     * over without deserializing; other lists' payloads are decoded and serialized again.
+     */
+    @Override
+    public <V> Optional<V> aggregateSerialized(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp, Function<String, ? extends V> extractor, BinaryOperator<V> combiner) {
+        if (index.isEmpty())
+            return Optional.empty();
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        Optional<V> result = ParallelAggregate.run(keysVisibleAt(fromKey, fromInclusive, toKey, toInclusive, timeStamp), aggregateParallelism,
+                run -> run.stream().map(k -> storedVisible(k, timeStamp)).iterator(),
+                extractor, combiner);
+        if (start != 0L)
+            metrics.latency(MvmMetrics.Op.RANGE_SNAPSHOT, System.nanoTime() - start);
+        return result;
+    }
+
+    private List<K> keysVisibleAt(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp) {
+        List<K> keys = new ArrayList<>();
+        for (K k : index.subMap(fromKey, fromInclusive, toKey, toInclusive).keySet()) {
+            if (catalog.firstVersion(k) <= timeStamp)
+                keys.add(k);
+        }
+        return keys;
+    }
+
+    private String storedVisible(K k, long t) {
+        if (latestView != null && latestView.covers(k, t))
+            return serializer.serialize(latestView.payload(k));
+        VersionList<P> vl = index.get(k);
+        if (vl instanceof RecordVersionList<P> records) {
+            VersionedRecord record = records.findVisibleRecord(t);
+            return (record == null) ? null : record.payload();
+        }
+        P visible = vl.findVisible(t);
+        return (visible == null) ? null : serializer.serialize(visible);
+    }
+
+    @Override
+    public <V> Optional<V> aggregate(long timeStamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        if (index.isEmpty())
+            return Optional.empty();
+        return aggregate(index.firstKey(), true, index.lastKey(), true, timeStamp, extractor, combiner);
+    }
+}
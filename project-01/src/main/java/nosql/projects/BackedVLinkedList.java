@@ -1,16 +1,24 @@
 package nosql.projects;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import nosql.projects.Material.KVStore;
+import nosql.projects.Material.MvmMetrics;
+import nosql.projects.Material.RecordVersionList;
 import nosql.projects.Material.Serializer;
 import nosql.projects.Material.VersionList;
+import nosql.projects.Material.VersionListFactory;
+import nosql.projects.Material.VersionedRecord;
 
-public final class BackedVLinkedList<P> implements VersionList<P> {
+public final class BackedVLinkedList<P> implements RecordVersionList<P> {
     private static final String HEAD_KEY = "__head__" ;
     private final KVStore store;
     private final Serializer<P> serializer;
+    private final MvmMetrics metrics;
     private final ObjectMapper mapper = new ObjectMapper();
 
     @JsonIgnoreProperties(ignoreUnknown = true) 
@@ -30,13 +38,48 @@ public final class BackedVLinkedList<P> implements VersionList<P> {
     }
 
     public BackedVLinkedList(KVStore store, Serializer<P> serializer) {
+        this(store, serializer, MvmMetrics.DISABLED);
+    }
+
+    public BackedVLinkedList(KVStore store, Serializer<P> serializer, MvmMetrics metrics) {
+        this(store, serializer, metrics, true);
+    }
+
+    private BackedVLinkedList(KVStore store, Serializer<P> serializer, MvmMetrics metrics, boolean initialize) {
         this.store = store;
         this.serializer = serializer;
+        this.metrics = metrics;
+        if (!initialize)
+            return;
+        metrics.storeGets(1);
         if (store.get(HEAD_KEY) == null) {
             store.put(HEAD_KEY, "");
+            metrics.storePuts(1);
         }
     }
 
+    /**
+     * Opens a list that another instance writes, for reading only; unlike the constructor it never
+     * writes the head, which could overwrite one the writer stores concurrently.
+     */
+    static <P> BackedVLinkedList<P> reader(KVStore store, Serializer<P> serializer, MvmMetrics metrics) {
+        return new BackedVLinkedList<>(store, serializer, metrics, false);
+    }
+
+    public static <P> VersionListFactory<P> factory() {
+        return new VersionListFactory<>() {
+            @Override
+            public VersionList<P> create(KVStore store, Serializer<P> serializer) {
+                return new BackedVLinkedList<>(store, serializer);
+            }
+
+            @Override
+            public VersionList<P> create(KVStore store, Serializer<P> serializer, MvmMetrics metrics) {
+                return new BackedVLinkedList<>(store, serializer, metrics);
+            }
+        };
+    }
+
     @Override
     public void append(P p, long timeStamp) {
         try {
@@ -48,6 +91,7 @@ public final class BackedVLinkedList<P> implements VersionList<P> {
             
             store.put(newKey, mapper.writeValueAsString(record));
             store.put(HEAD_KEY, newKey);
+            metrics.storePuts(2);
         } catch (Exception exception) {
             throw new RuntimeException("Append failed", exception);
         }
@@ -55,28 +99,87 @@ public final class BackedVLinkedList<P> implements VersionList<P> {
 
     @Override
     public P findVisible(long timeStamp) {
+        VersionedRecord visible = findVisibleRecord(timeStamp);
+        return (visible == null) ? null : serializer.deSerialize(visible.payload());
+    }
+
+    @Override
+    public VersionedRecord findVisibleRecord(long timeStamp) {
+        int hops = 0;
         try {
             String key = headKeyOrNull();
             while (key != null && !key.isEmpty()) {
                 NodeRecord record = readNode(key);
+                hops++;
                 if (record.ts <= timeStamp) {
-                    return serializer.deSerialize(record.payload);
+                    return new VersionedRecord(record.ts, record.payload);
                 }
                 key = record.nextKey;
             }
             return null;
         } catch (Exception exception) {
             throw new RuntimeException("Find visible function failed", exception);
+        } finally {
+            metrics.hops(hops);
+        }
+    }
+
+    @Override
+    public VersionedRecord readVersion(long version) {
+        // nodes are stored under their version, so no walk is needed
+        String json = store.get(String.valueOf(version));
+        metrics.storeGets(1);
+        if (json == null)
+            return null;
+        try {
+            NodeRecord record = mapper.readValue(json, NodeRecord.class);
+            return new VersionedRecord(record.ts, record.payload);
+        } catch (Exception exception) {
+            throw new RuntimeException("Corrupt node", exception);
+        }
+    }
+
+    /**
+     * @return the number of versions in this list, or limit if there are at least that many
+     */
+    int countUpTo(int limit) {
+        int count = 0;
+        String key = headKeyOrNull();
+        while (count < limit && key != null && !key.isEmpty()) {
+            key = readNode(key).nextKey;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return all versions newer than the given version, newest first
+     */
+    List<VersionedRecord> newerThan(long version) {
+        List<VersionedRecord> out = new ArrayList<>();
+        String key = headKeyOrNull();
+        while (key != null && !key.isEmpty()) {
+            NodeRecord record = readNode(key);
+            if (record.ts <= version)
+                break;
+            out.add(new VersionedRecord(record.ts, record.payload));
+            key = record.nextKey;
         }
+        return out;
     }
 
     private NodeRecord readNode(String key) {
         try {
             String json = store.get(key);
+            metrics.storeGets(1);
             if (json == null) {
                 throw new IllegalStateException("Missing node");
             }
-            return mapper.readValue(json, NodeRecord.class);
+            long start = metrics.enabled() ? System.nanoTime() : 0L;
+            NodeRecord record = mapper.readValue(json, NodeRecord.class);
+            if (start != 0L)
+                metrics.serialization(System.nanoTime() - start);
+            return record;
         } catch (Exception exception) {
             throw new RuntimeException("Corrupt node", exception);
         }
@@ -84,6 +187,7 @@ public final class BackedVLinkedList<P> implements VersionList<P> {
 
     private String headKeyOrNull() {
         String v = store.get(HEAD_KEY);
+        metrics.storeGets(1);
         return (v == null || v.isEmpty() ? null : v);
     }
 }
@@ -1,22 +1,34 @@
 package nosql.projects;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.TreeMap;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import nosql.projects.Material.BatchKVStore;
 import nosql.projects.Material.KVStore;
+import nosql.projects.Material.KeyCodec;
 import nosql.projects.Material.MultiVersionMap;
+import nosql.projects.Material.MvmMetrics;
+import nosql.projects.Material.OrderedKVStore;
 import nosql.projects.Material.Serializer;
+import nosql.projects.Material.TraversableKVStore;
 
 public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implements MultiVersionMap<K, P> {
 
@@ -48,6 +60,9 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
         public String headAbsolute;
         public long count;
         public List<String> lastAtLevel;
+        // oldest version of the list, kept with the meta so a store-indexed map has the catalog's
+        // lower bound; null in metas written before it was recorded
+        public Long firstVersion;
         
         public Meta() {}
         public Meta(String headAbsolute, long count, List<String> lastAtLevel) {
@@ -63,15 +78,26 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
         private final String META;
         private Meta meta;
         
+        // For a list whose meta is already known, e.g. one written by bulkLoad.
+        listHandle(K mapKey, Meta meta) {
+            this.mapKey = mapKey;
+            this.prefix = "VW:" + storeKey(mapKey) + ":";
+            this.META = prefix + META_SUFFIX;
+            this.meta = meta;
+        }
+
         listHandle(K mapKey) {
             this.mapKey = mapKey;
-            this.prefix = "VW:" + mapKey + ":";
-            this.META = prefix + "__meta__";
+            this.prefix = "VW:" + storeKey(mapKey) + ":";
+            this.META = prefix + META_SUFFIX;
             String m = store.get(META);
+            metrics.storeGets(1);
             
             if(m == null) {
                 this.meta = new Meta(null, 0L, new ArrayList<>());
                 persistMeta();
+                if (keyIndex != null)
+                    keyIndex.addToIndex(KEY_INDEX, storeKey(mapKey));
             } else {
                 try {
                     this.meta = oMapper.readValue(m, Meta.class);
@@ -98,18 +124,28 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
         String headAbs() {
             return meta.headAbsolute;
         }
+
+        // true if the list is known to have no version at or below t
+        boolean startsAfter(long t) {
+            return meta.firstVersion != null && t < meta.firstVersion;
+        }
         
         nodeRecord readAbsolute(String absKey) {
             try {
                 if (absKey == null) 
                     return null;
                 String json = store.get(absKey);
+                metrics.storeGets(1);
                 if (json == null) {
                     if (VW_DEBUG)
                         System.err.println("[VW] readAbs missing key" + absKey);
                     return null;
                 }
-                return oMapper.readValue(json, nodeRecord.class);
+                long start = metrics.enabled() ? System.nanoTime() : 0L;
+                nodeRecord record = oMapper.readValue(json, nodeRecord.class);
+                if (start != 0L)
+                    metrics.serialization(System.nanoTime() - start);
+                return record;
             } catch (Exception exception) {
                 throw new RuntimeException("Read Absolute failed" + absKey, exception);
             }
@@ -122,6 +158,7 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
         void writeLocal(String localKey, nodeRecord record) {
             try {
                 store.put(absoluteFind(localKey), oMapper.writeValueAsString(record));
+                metrics.storePuts(1);
             } catch (Exception exception) {
                 throw new RuntimeException("Write local failed", exception);
             }
@@ -130,6 +167,7 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
         void persistMeta() {
             try {
                 store.put(META, oMapper.writeValueAsString(meta));
+                metrics.storePuts(1);
             } catch (Exception exception) {
                 throw new RuntimeException("Persist Meta failed", exception);
             }
@@ -141,6 +179,8 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
         }
         
         String appendLocal(long ts, String payloadStr) {
+            if (meta.firstVersion == null)
+                meta.firstVersion = ts;
             meta.count++;
             int level = Long.numberOfTrailingZeros(meta.count);
             
@@ -162,21 +202,28 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
         }
         
         String findVisibleAbsolute(long t) {
-            String currentAbs = headAbs();
-            while (currentAbs != null) {
-                nodeRecord current = readAbsolute(currentAbs);
-                if (current.ts <= t)
-                return currentAbs;
-                if (current.ridgyKey != null) {
-                    nodeRecord rec = readLocal(current.ridgyKey);
-                    if (rec != null && rec.ts > t) {
-                        currentAbs = absoluteFind(current.ridgyKey);
-                        continue;
+            int hops = 0;
+            try {
+                String currentAbs = headAbs();
+                while (currentAbs != null) {
+                    nodeRecord current = readAbsolute(currentAbs);
+                    hops++;
+                    if (current.ts <= t)
+                    return currentAbs;
+                    if (current.ridgyKey != null) {
+                        nodeRecord rec = readLocal(current.ridgyKey);
+                        hops++;
+                        if (rec != null && rec.ts > t) {
+                            currentAbs = absoluteFind(current.ridgyKey);
+                            continue;
+                        }
                     }
+                    currentAbs = absoluteFind(current.nextKey);
                 }
-                currentAbs = absoluteFind(current.nextKey);
+                return null;
+            } finally {
+                metrics.hops(hops);
             }
-            return null;
         }
         
         String firstGEAbsolute(long t) {
@@ -193,6 +240,7 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
                         nodeRecord rec = readLocal(current.ridgyKey);
                         if (rec != null && rec.ts >= t) {
                             currentAbsolute = absoluteFind(current.ridgyKey);
+                            continue;
                         }
                     }
                     currentAbsolute = absoluteFind(current.nextKey);
@@ -204,22 +252,30 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
         }
         
         String descendVisible(String startAbsolute, long t) {
-            String currentAbsolute = (startAbsolute != null) ? startAbsolute : headAbs();
-            while (currentAbsolute != null) {
-                nodeRecord current = readAbsolute(currentAbsolute);
-                if (current == null)
-                    break;
-                if (current.ts <= t) 
-                    return currentAbsolute;
-                if (current.ridgyKey != null) {
-                    nodeRecord rec = readLocal(current.ridgyKey);
-                    if (rec != null && rec.ts > t) {
-                        currentAbsolute = absoluteFind(current.ridgyKey);
+            int hops = 0;
+            try {
+                String currentAbsolute = (startAbsolute != null) ? startAbsolute : headAbs();
+                while (currentAbsolute != null) {
+                    nodeRecord current = readAbsolute(currentAbsolute);
+                    hops++;
+                    if (current == null)
+                        break;
+                    if (current.ts <= t) 
+                        return currentAbsolute;
+                    if (current.ridgyKey != null) {
+                        nodeRecord rec = readLocal(current.ridgyKey);
+                        hops++;
+                        if (rec != null && rec.ts > t) {
+                            currentAbsolute = absoluteFind(current.ridgyKey);
+                            continue;
+                        }
                     }
+                    currentAbsolute = absoluteFind(current.nextKey);
                 }
-                currentAbsolute = absoluteFind(current.nextKey);
+                return null;
+            } finally {
+                metrics.hops(hops);
             }
-            return null;
         }
         
         void setKRidgyNext(listHandle nextList, String localKey, long v) {
@@ -227,7 +283,12 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
                 return;
             if (nextList.meta.headAbsolute == null)
                 return;
-            String targetAbsolute = nextList.firstGEAbsolute(v);
+            // Node keys are their versions and a chain only gets older, so the head alone tells
+            // whether no node, or (in a commit) exactly the head, is the first one >= v.
+            long headVersion = Long.parseLong(nextList.localFind(nextList.headAbs()));
+            if (headVersion < v)
+                return;
+            String targetAbsolute = (headVersion == v) ? nextList.headAbs() : nextList.firstGEAbsolute(v);
             if (targetAbsolute == null)
                 return;
             nodeRecord record = readLocal(localKey);
@@ -238,60 +299,498 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
         }
     }
     
+    /**
+     * One version of one key for {@link #bulkLoad(Iterator, int)}.
+     */
+    public record Row<K, P>(K key, long version, P payload) {}
+
     private final ObjectMapper oMapper = new ObjectMapper();
-    private final KVStore store;
+    // every write goes through here, so a commit can send all of them at once
+    private final WriteBatchKVStore store;
     private final TreeMap<K, listHandle> trees = new TreeMap<>();
     private final Serializer<P> serializer;
-    private long version = 1L;
+    private final VersionClock clock;
+    private final KeyCatalog<K> catalog = new KeyCatalog<>();
+    // non-null if the store can walk version chains itself
+    private final TraversableKVStore traversable;
+    private MvmMetrics metrics = MvmMetrics.DISABLED;
+    private Serializer<P> payloadSerializer;
+    private PayloadCache<K, P> payloadCache;
+    private LatestView<K, P> latestView;
+    private SnapshotCheckpoints<K> checkpoints;
+    private int aggregateParallelism = 1;
+    private boolean appended;
 
     private static final boolean VW_DEBUG = false;
+    private static final String KEY_INDEX = "VW:__keys__";
+    private static final String META_SUFFIX = "__meta__";
+
+    private KeyCodec<K> keyCodec;
+    // non-null if keys are discovered from the store's ordered index instead of the on-heap tree
+    private OrderedKVStore keyIndex;
+    // the store itself if it has ordered indexes
+    private final OrderedKVStore orderedStore;
 
     public BackedVWeaverMVM(KVStore store, Serializer<P> serializer) {
-        this.store = Objects.requireNonNull(store);
+        this(store, serializer, new VersionClock());
+    }
+
+    public BackedVWeaverMVM(KVStore store, Serializer<P> serializer, VersionClock clock) {
+        this.store = new WriteBatchKVStore(Objects.requireNonNull(store));
         this.serializer = Objects.requireNonNull(serializer);
+        this.clock = Objects.requireNonNull(clock);
+        this.payloadSerializer = serializer;
+        this.traversable = (store instanceof TraversableKVStore t && t.traversalSupported()) ? t : null;
+        this.orderedStore = (store instanceof OrderedKVStore ordered) ? ordered : null;
+    }
+
+    /**
+     * Reports to metrics from now on. Must be called before the first append.
+     */
+    public BackedVWeaverMVM<K, P> withMetrics(MvmMetrics metrics) {
+        if (appended)
+            throw new IllegalStateException("Metrics must be set before the first append");
+        this.metrics = Objects.requireNonNull(metrics);
+        this.payloadSerializer = TimedSerializer.wrap(serializer, metrics);
+        return this;
+    }
+
+    /**
+     * Serves repeated reads of the same (key, version) from cache instead of deserializing again.
+     */
+    public BackedVWeaverMVM<K, P> withPayloadCache(PayloadCache<K, P> cache) {
+        this.payloadCache = Objects.requireNonNull(cache);
+        return this;
+    }
+
+    /**
+     * Keeps a materialized table of every key's newest version, so reads at or after a key's
+     * newest version skip the version list. Must be called before the first append.
+     */
+    public BackedVWeaverMVM<K, P> withLatestView(LatestView.Mode mode) {
+        if (appended)
+            throw new IllegalStateException("The latest view must be enabled before the first append");
+        this.latestView = new LatestView<>(mode, store, payloadSerializer);
+        return this;
+    }
+
+    /**
+     * Writes a checkpoint of every key's newest version after each everyAppends appends, so that
+     * snapshot(t) fetches each key's visible node directly, in one batch, instead of walking the
+     * lists. Must be called before the first append.
+     */
+    public BackedVWeaverMVM<K, P> withCheckpoints(int everyAppends) {
+        if (appended)
+            throw new IllegalStateException("Checkpoints must be enabled before the first append");
+        this.checkpoints = new SnapshotCheckpoints<>(store, everyAppends);
+        return this;
+    }
+
+    /**
+     * Lets aggregates resolve up to parallelism key ranges concurrently. Aggregates must then not
+     * run concurrently with appends.
+     */
+    public BackedVWeaverMVM<K, P> withAggregateParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.aggregateParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Names the store keys of k's list by codec's order-preserving encoding instead of k.toString().
+     * If the store is an {@link OrderedKVStore}, every key is also added to an index in the store,
+     * and reads find keys through that index: the map then serves keys written by earlier instances
+     * on the same store and does not need to have seen a key to find it. Appends then keep no
+     * per-key state on the heap either; each one reads its key's meta from the store instead.
+     * Checkpoints and an in-memory latest view still track every key. Must be called before the
+     * first append.
+     */
+    public BackedVWeaverMVM<K, P> withKeyCodec(KeyCodec<K> codec) {
+        if (appended)
+            throw new IllegalStateException("The key codec must be set before the first append");
+        this.keyCodec = Objects.requireNonNull(codec);
+        this.keyIndex = orderedStore;
+        return this;
+    }
+
+    private String storeKey(K k) {
+        return (keyCodec == null) ? String.valueOf(k) : keyCodec.encodeToString(k);
     }
 
     private listHandle handle(K k) {
+        if (keyIndex != null)
+            return new listHandle(k);
         return trees.computeIfAbsent(k, listHandle::new);
     }
 
+    // handle of a list some instance wrote to the store, or null if there is none
+    private listHandle loadHandle(K k) {
+        listHandle h = trees.get(k);
+        if (h != null || keyIndex == null)
+            return h;
+        String m = store.get("VW:" + storeKey(k) + ":" + META_SUFFIX);
+        metrics.storeGets(1);
+        return (m == null) ? null : new listHandle(k, parseMeta(m));
+    }
+
+    // the catalog only knows keys this instance appended to, the meta also those of earlier instances
+    private boolean startsAfter(Map.Entry<K, listHandle> e, long t) {
+        return catalog.startsAfter(e.getKey(), t) || e.getValue().startsAfter(t);
+    }
+
+    private Meta parseMeta(String m) {
+        try {
+            Meta meta = oMapper.readValue(m, Meta.class);
+            if (meta.lastAtLevel == null)
+                meta.lastAtLevel = new ArrayList<>();
+            return meta;
+        } catch (Exception exception) {
+            throw new RuntimeException("Corrupt meta", exception);
+        }
+    }
+
+    /**
+     * Finds the keys in a range through the store's index. Lists not yet known to this instance
+     * are loaded with one batched read of their metas.
+     */
+    private NavigableMap<K, listHandle> discover(K fromKey, boolean fromInc, K toKey, boolean toInc, int limit) {
+        List<String> members = keyIndex.scanIndex(KEY_INDEX,
+                (fromKey == null) ? null : storeKey(fromKey), fromInc,
+                (toKey == null) ? null : storeKey(toKey), toInc, limit);
+        TreeMap<K, listHandle> found = new TreeMap<>();
+        List<K> unknown = new ArrayList<>();
+        List<String> metaKeys = new ArrayList<>();
+        for (String member : members) {
+            K k = keyCodec.decodeFromString(member);
+            listHandle h = trees.get(k);
+            if (h != null) {
+                found.put(k, h);
+            } else {
+                unknown.add(k);
+                metaKeys.add("VW:" + member + ":" + META_SUFFIX);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            List<String> metas;
+            if (store instanceof BatchKVStore batch) {
+                metas = batch.getAll(metaKeys);
+                metrics.storeGets(1);
+            } else {
+                metas = new ArrayList<>(metaKeys.size());
+                for (String metaKey : metaKeys) {
+                    metas.add(store.get(metaKey));
+                }
+                metrics.storeGets(metaKeys.size());
+            }
+            for (int i = 0; i < unknown.size(); i++) {
+                if (metas.get(i) != null)
+                    found.put(unknown.get(i), new listHandle(unknown.get(i), parseMeta(metas.get(i))));
+            }
+        }
+        return found;
+    }
+
     @Override
     public Map.Entry<K, P> get(K k, long t) {
-        listHandle h = trees.get(k);
-        if (h == null) 
+        // with a key index, keys this instance has not seen may still exist in the store
+        if (keyIndex == null ? catalog.definitelyAbsent(k, t) : catalog.startsAfter(k, t))
+            return null;
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        listHandle h = loadHandle(k);
+        if (h == null || h.startsAfter(t))
             return null;
+        try {
+            return visibleEntry(k, h, t);
+        } finally {
+            if (start != 0L)
+                metrics.latency(MvmMetrics.Op.GET, System.nanoTime() - start);
+        }
+    }
+
+    private Map.Entry<K, P> visibleEntry(K k, listHandle h, long t) {
+        if (latestView != null && latestView.covers(k, t))
+            return new SimpleImmutableEntry<>(k, latestView.payload(k));
+        if (traversable != null) {
+            nodeRecord record = parseNode(traversable.findVisible(h.headAbs(), h.prefix, t));
+            metrics.storeGets(1);
+            return (record == null) ? null : new SimpleImmutableEntry<>(k, decode(k, record));
+        }
         String visibleAbs = h.findVisibleAbsolute(t);
         if (visibleAbs == null)
             return null;
         nodeRecord record = h.readAbsolute(visibleAbs);
-        return new SimpleImmutableEntry<>(k, serializer.deSerialize(record.payload));
+        return new SimpleImmutableEntry<>(k, decode(k, record));
     }
 
     @Override
     public long append(K k, P p) {
-        long v = version++;
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        long v = clock.next();
+        appendToList(k, p, v, null);
+        if (checkpoints != null)
+            checkpoints.recordAppend(k, v);
+        record(k, p, v);
+        if (start != 0L)
+            metrics.latency(MvmMetrics.Op.APPEND, System.nanoTime() - start);
+        return v;
+    }
+
+    /**
+     * Appends the whole batch under one version; all node and meta writes are sent as one batch at
+     * the end. Keys are appended in descending order, so each kRidgy pointer can already target
+     * the next key's node of this commit. If the batch cannot be stored, the map is left as it was
+     * before.
+     */
+    @Override
+    public long commit(Map<K, P> batch) {
+        if (batch.isEmpty())
+            throw new IllegalArgumentException("Empty batch");
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        long v = clock.reserve();
+        try {
+            store.begin();
+            if (checkpoints != null)
+                checkpoints.begin();
+            try {
+                listHandle above = null;
+                for (Map.Entry<K, P> e : new TreeMap<>(batch).descendingMap().entrySet()) {
+                    above = appendToList(e.getKey(), e.getValue(), v, above);
+                    if (checkpoints != null)
+                        checkpoints.recordAppend(e.getKey(), v);
+                }
+                store.flush();
+                if (checkpoints != null)
+                    checkpoints.end();
+            } catch (RuntimeException exception) {
+                rollBack(batch.keySet());
+                throw exception;
+            }
+            // the rest of the in-memory state follows only once the batch is stored
+            for (Map.Entry<K, P> e : batch.entrySet()) {
+                record(e.getKey(), e.getValue(), v);
+            }
+        } finally {
+            clock.publish(v);
+        }
+        if (start != 0L)
+            metrics.latency(MvmMetrics.Op.APPEND, System.nanoTime() - start);
+        return v;
+    }
+
+    /**
+     * @param above in a commit, the handle of the next higher key appended under v, or null
+     * @return the handle k was appended to
+     */
+    private listHandle appendToList(K k, P p, long v, listHandle above) {
+        appended = true;
         listHandle current = handle(k);
 
-        String payloadStr = serializer.serialize(p);
+        String payloadStr = payloadSerializer.serialize(p);
         String localKey = current.appendLocal(v, payloadStr);
 
-        Map.Entry<K, listHandle> nextEntry = trees.higherEntry(k);
-        if (nextEntry != null) {
-            current.setKRidgyNext(nextEntry.getValue(), localKey, v);
+        listHandle next = nextList(k, above);
+        if (next != null) {
+            current.setKRidgyNext(next, localKey, v);
+        }
+        if (latestView != null)
+            latestView.write(k, p);
+        return current;
+    }
+
+    private void record(K k, P p, long v) {
+        if (keyIndex == null)
+            catalog.recordAppend(k, v);
+        if (latestView != null)
+            latestView.publish(k, v, p);
+    }
+
+    /**
+     * Undoes the appends of a commit whose batch was not stored: checkpoints forget them, and cached
+     * handles are reloaded from the metas the store still holds, or dropped for lists the commit
+     * created. A new key may stay
+     * in the key index; lists without a meta are skipped when it is scanned.
+     */
+    private void rollBack(Collection<K> keys) {
+        store.discard();
+        if (checkpoints != null)
+            checkpoints.rollBack();
+        if (keyIndex != null)
+            return;
+        for (K k : keys) {
+            trees.remove(k);
+            String m = store.get("VW:" + storeKey(k) + ":" + META_SUFFIX);
+            metrics.storeGets(1);
+            if (m != null)
+                trees.put(k, new listHandle(k, parseMeta(m)));
         }
-        return v;
+    }
+
+    // Only a list holding v can be a kRidgy target of a node at v, since no version is newer. With
+    // a key index that is the next key only if this commit appended to it.
+    private listHandle nextList(K k, listHandle above) {
+        if (keyIndex == null) {
+            Map.Entry<K, listHandle> nextEntry = trees.higherEntry(k);
+            return (nextEntry == null) ? null : nextEntry.getValue();
+        }
+        if (above == null)
+            return null;
+        List<String> next = keyIndex.scanIndex(KEY_INDEX, storeKey(k), false, null, false, 1);
+        metrics.storeGets(1);
+        return (!next.isEmpty() && next.get(0).equals(storeKey(above.mapKey))) ? above : null;
+    }
+
+    /**
+     * Loads rows sorted by key, then by ascending version, into keys this map does not hold yet.
+     * All next/ridgy/kRidgy pointers are computed in memory, so every node and meta is written
+     * exactly once, batchSize entries per round trip if the store is a {@link BatchKVStore}, and
+     * nothing is read back. The clock is advanced past the largest loaded version. With checkpoints
+     * enabled, every loaded version must be newer than the versions the map already holds.
+     * @return number of rows loaded
+     */
+    public long bulkLoad(Iterator<Row<K, P>> sorted, int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be positive");
+        Map<String, String> pending = new LinkedHashMap<>();
+        List<nodeRecord> previousNodes = new ArrayList<>();
+        List<nodeRecord> currentNodes = new ArrayList<>();
+        listHandle previous = null;
+        listHandle current = null;
+        long rows = 0;
+        long maxVersion = Long.MIN_VALUE;
+        // checkpoints take appends in version order, rows come in key order
+        List<Row<K, P>> checkpointed = (checkpoints == null) ? null : new ArrayList<>();
+
+        while (sorted.hasNext()) {
+            Row<K, P> row = sorted.next();
+            appended = true;
+            if (checkpointed != null && row.version() <= checkpoints.lastVersion())
+                throw new IllegalArgumentException("Version " + row.version() + " is not newer than the checkpointed versions");
+            if (current == null || row.key().compareTo(current.mapKey) != 0) {
+                if (current != null && row.key().compareTo(current.mapKey) < 0)
+                    throw new IllegalArgumentException("Rows not sorted by key at " + row.key());
+                if (loadHandle(row.key()) != null)
+                    throw new IllegalStateException("Key already present: " + row.key());
+                // current's versions are complete, so previous's kRidgy pointers can be set
+                finishBulkList(previous, previousNodes, current, currentNodes, pending, batchSize);
+                previous = current;
+                previousNodes = currentNodes;
+                currentNodes = new ArrayList<>();
+                current = new listHandle(row.key(), new Meta(null, 0L, new ArrayList<>()));
+            } else if (row.version() <= currentNodes.get(currentNodes.size() - 1).ts) {
+                throw new IllegalArgumentException("Versions not ascending for key " + row.key());
+            }
+
+            Meta meta = current.meta;
+            if (meta.firstVersion == null)
+                meta.firstVersion = row.version();
+            meta.count++;
+            int level = Long.numberOfTrailingZeros(meta.count);
+            while (meta.lastAtLevel.size() <= level) {
+                meta.lastAtLevel.add(null);
+            }
+            String localKey = String.valueOf(row.version());
+            String prevHeadLocal = (meta.headAbsolute == null) ? null : current.localFind(meta.headAbsolute);
+            String payloadStr = payloadSerializer.serialize(row.payload());
+            currentNodes.add(new nodeRecord(row.version(), payloadStr, prevHeadLocal, meta.lastAtLevel.get(level), level, null));
+            meta.headAbsolute = current.absoluteFind(localKey);
+            meta.lastAtLevel.set(level, localKey);
+
+            if (keyIndex == null)
+                catalog.recordAppend(row.key(), row.version());
+            if (checkpointed != null)
+                checkpointed.add(new Row<>(row.key(), row.version(), null));
+            if (latestView != null)
+                latestView.update(row.key(), row.version(), row.payload());
+            maxVersion = Math.max(maxVersion, row.version());
+            rows++;
+        }
+        finishBulkList(previous, previousNodes, current, currentNodes, pending, batchSize);
+        finishBulkList(current, currentNodes, null, null, pending, batchSize);
+        flushBulk(pending);
+        if (checkpointed != null) {
+            checkpointed.sort(Comparator.comparingLong(Row::version));
+            for (Row<K, P> row : checkpointed) {
+                checkpoints.recordAppend(row.key(), row.version());
+            }
+        }
+        if (rows > 0)
+            clock.advanceTo(maxVersion);
+        return rows;
+    }
+
+    private void finishBulkList(listHandle h, List<nodeRecord> nodes, listHandle next, List<nodeRecord> nextNodes, Map<String, String> pending, int batchSize) {
+        if (h == null)
+            return;
+        // Pointers only go to the next loaded key; linking to a key loaded earlier would need a read-back.
+        int j = 0;
+        try {
+            for (nodeRecord node : nodes) {
+                if (nextNodes != null) {
+                    // oldest version of the next key that is >= node.ts, as firstGEAbsolute would find
+                    while (j < nextNodes.size() && nextNodes.get(j).ts < node.ts) {
+                        j++;
+                    }
+                    if (j < nextNodes.size())
+                        node.kRidgyAbsolute = next.absoluteFind(String.valueOf(nextNodes.get(j).ts));
+                }
+                pending.put(h.absoluteFind(String.valueOf(node.ts)), oMapper.writeValueAsString(node));
+                if (pending.size() >= batchSize)
+                    flushBulk(pending);
+            }
+            pending.put(h.META, oMapper.writeValueAsString(h.meta));
+            if (keyIndex != null)
+                keyIndex.addToIndex(KEY_INDEX, storeKey(h.mapKey));
+        } catch (Exception exception) {
+            throw new RuntimeException("Bulk load failed", exception);
+        }
+        if (keyIndex == null)
+            trees.put(h.mapKey, h);
+    }
+
+    private void flushBulk(Map<String, String> pending) {
+        if (pending.isEmpty())
+            return;
+        if (store instanceof BatchKVStore batch) {
+            batch.putAll(pending);
+        } else {
+            for (Map.Entry<String, String> e : pending.entrySet()) {
+                store.put(e.getKey(), e.getValue());
+            }
+        }
+        metrics.storePuts(pending.size());
+        pending.clear();
     }
 
     public Iterator<Map.Entry<K, P>> rangeSnapshot(K fromKey, boolean fromInc, K toKey, boolean toInc, long timeStamp) {
+        if (keyIndex != null)
+            return rangeSnapshotOver(discover(fromKey, fromInc, toKey, toInc, 0), timeStamp);
         if (trees.isEmpty())
             return Collections.<Map.Entry<K, P>> emptyList().iterator();
+        return rangeSnapshotOver(trees.subMap(fromKey, fromInc, toKey, toInc), timeStamp);
+    }
 
-        NavigableMap<K, listHandle> subTree = trees.subMap(fromKey, fromInc, toKey, toInc);
+    private Iterator<Map.Entry<K, P>> rangeSnapshotOver(NavigableMap<K, listHandle> subTree, long timeStamp) {
+        return resolveOver(subTree, timeStamp, this::decode, p -> p);
+    }
 
+    /**
+     * Resolves the visible version of every key in subTree; fromNode turns a stored node into the
+     * returned value, fromView a payload served by the latest view.
+     */
+    private <T> Iterator<Map.Entry<K, T>> resolveOver(NavigableMap<K, listHandle> subTree, long timeStamp, BiFunction<K, nodeRecord, T> fromNode, Function<? super P, ? extends T> fromView) {
         if (subTree.isEmpty())
-            return Collections.<Map.Entry<K, P>> emptyList().iterator();
+            return Collections.<Map.Entry<K, T>> emptyList().iterator();
         
-        List<Map.Entry<K, P>> outList = new ArrayList<>(subTree.size());
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        if (traversable != null) {
+            Iterator<Map.Entry<K, T>> walked = resolveInStore(subTree, timeStamp, fromNode, fromView);
+            if (start != 0L)
+                metrics.latency(MvmMetrics.Op.RANGE_SNAPSHOT, System.nanoTime() - start);
+            return walked;
+        }
+        List<Map.Entry<K, T>> outList = new ArrayList<>(subTree.size());
+        Map<K, P> current = (latestView == null) ? Collections.emptyMap() : latestView.visibleAt(subTree.keySet(), timeStamp);
 
         String prevFirstGEAbsolute = null;
 
@@ -301,41 +800,204 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
             listHandle h = e.getValue();
             String startAbs = null;
 
+            if (startsAfter(e, timeStamp)) {
+                // nothing visible yet; the whole chain is newer than timeStamp
+                prevFirstGEAbsolute = null;
+                first = false;
+                continue;
+            }
+
+            P viewed = current.get(e.getKey());
+            if (viewed != null) {
+                // served without touching the list, so the next key starts from its head
+                outList.add(new SimpleImmutableEntry<>(e.getKey(), fromView.apply(viewed)));
+                prevFirstGEAbsolute = null;
+                first = false;
+                continue;
+            }
+
             if (first) {
                 startAbs = null;
                 first = false;
             } else if (prevFirstGEAbsolute != null) {
                 nodeRecord prevNode = readAbsoluteGeneric(prevFirstGEAbsolute);
                 if (prevNode != null && prevNode.kRidgyAbsolute != null) {
-                    String expectedPrefix = "VW:" + e.getKey() + ":";
+                    String expectedPrefix = h.prefix;
                     if (prevNode.kRidgyAbsolute.startsWith(expectedPrefix)) {
                         startAbs = prevNode.kRidgyAbsolute;
                     } else if (VW_DEBUG) {
                         System.err.println("[VW] kRidgy points to different list:" + prevNode.kRidgyAbsolute);
                     }
-                    // startAbs = prevNode.kRidgyAbsolute.startsWith("VW:" + e.getKey() + ":") ? prevNode.kRidgyAbsolute : null;
                 }
             }
             String visAbsolute = h.descendVisible(startAbs, timeStamp);
             if (visAbsolute != null) {
                 nodeRecord visible = h.readAbsolute(visAbsolute);
-                outList.add(new SimpleImmutableEntry<>(e.getKey(), serializer.deSerialize(visible.payload)));
+                outList.add(new SimpleImmutableEntry<>(e.getKey(), fromNode.apply(e.getKey(), visible)));
             }
             prevFirstGEAbsolute = h.firstGEAbsolute(timeStamp);
         }
+        if (start != 0L)
+            metrics.latency(MvmMetrics.Op.RANGE_SNAPSHOT, System.nanoTime() - start);
+        return outList.iterator();
+    }
+
+    // Every key's walk is shipped to the store in a single call; kRidgy shortcuts are not needed.
+    private <T> Iterator<Map.Entry<K, T>> resolveInStore(NavigableMap<K, listHandle> subTree, long timeStamp, BiFunction<K, nodeRecord, T> fromNode, Function<? super P, ? extends T> fromView) {
+        Map<K, P> current = (latestView == null) ? Collections.emptyMap() : latestView.visibleAt(subTree.keySet(), timeStamp);
+        List<K> walkedKeys = new ArrayList<>();
+        List<String> heads = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (Map.Entry<K, listHandle> e : subTree.entrySet()) {
+            if (startsAfter(e, timeStamp) || current.containsKey(e.getKey()))
+                continue;
+            walkedKeys.add(e.getKey());
+            heads.add(e.getValue().headAbs());
+            prefixes.add(e.getValue().prefix);
+        }
+        List<String> found = walkedKeys.isEmpty() ? Collections.emptyList() : traversable.findVisibleAll(heads, prefixes, timeStamp);
+        if (!walkedKeys.isEmpty())
+            metrics.storeGets(1);
+
+        List<Map.Entry<K, T>> outList = new ArrayList<>(subTree.size());
+        int w = 0;
+        for (K k : subTree.keySet()) {
+            P viewed = current.get(k);
+            if (viewed != null) {
+                outList.add(new SimpleImmutableEntry<>(k, fromView.apply(viewed)));
+            } else if (w < walkedKeys.size() && walkedKeys.get(w).equals(k)) {
+                nodeRecord visible = parseNode(found.get(w++));
+                if (visible != null)
+                    outList.add(new SimpleImmutableEntry<>(k, fromNode.apply(k, visible)));
+            }
+        }
         return outList.iterator();
     }
 
+    private nodeRecord parseNode(String json) {
+        if (json == null)
+            return null;
+        try {
+            return oMapper.readValue(json, nodeRecord.class);
+        } catch (Exception exception) {
+            throw new RuntimeException("Corrupt node", exception);
+        }
+    }
+
+    @Override
+    public List<Map.Entry<K, P>> rangeSnapshotPage(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp, int limit) {
+        List<Map.Entry<K, P>> page = new ArrayList<>(Math.min(limit, 1024));
+        if (limit <= 0)
+            return page;
+        if (keyIndex != null)
+            return discoveredPage(fromKey, fromInclusive, toKey, toInclusive, timeStamp, limit, page);
+        // only resolves keys until the page is full
+        K k = fromInclusive ? trees.ceilingKey(fromKey) : trees.higherKey(fromKey);
+        while (k != null) {
+            int cmp = k.compareTo(toKey);
+            if (cmp > 0 || (cmp == 0 && !toInclusive))
+                break;
+            Map.Entry<K, P> visible = get(k, timeStamp);
+            if (visible != null) {
+                page.add(visible);
+                if (page.size() == limit)
+                    break;
+            }
+            k = trees.higherKey(k);
+        }
+        return page;
+    }
+
+    private List<Map.Entry<K, P>> discoveredPage(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp, int limit, List<Map.Entry<K, P>> page) {
+        while (page.size() < limit) {
+            int wanted = limit - page.size();
+            NavigableMap<K, listHandle> keys = discover(fromKey, fromInclusive, toKey, toInclusive, wanted);
+            for (Map.Entry<K, listHandle> e : keys.entrySet()) {
+                if (startsAfter(e, timeStamp))
+                    continue;
+                Map.Entry<K, P> visible = visibleEntry(e.getKey(), e.getValue(), timeStamp);
+                if (visible != null)
+                    page.add(visible);
+            }
+            if (keys.size() < wanted)
+                break;
+            fromKey = keys.lastKey();
+            fromInclusive = false;
+        }
+        return page;
+    }
+
     @Override
     public Iterator<Map.Entry<K, P>> snapshot(long timeStamp) {
+        // keys from earlier instances are only in the index, not in this instance's checkpoints
+        if (keyIndex != null)
+            return rangeSnapshotOver(discover(null, false, null, false, 0), timeStamp);
         if (trees.isEmpty())
             return Collections.<Map.Entry<K, P>> emptyList().iterator();
+        if (checkpoints != null)
+            return snapshotFromCheckpoint(timeStamp);
         return rangeSnapshot(trees.firstKey(), true, trees.lastKey(), true, timeStamp);
     }
 
+    private Iterator<Map.Entry<K, P>> snapshotFromCheckpoint(long timeStamp) {
+        long start = metrics.enabled() ? System.nanoTime() : 0L;
+        TreeMap<K, Long> versions = checkpoints.visibleVersions(timeStamp);
+        Map<K, P> current = (latestView == null) ? Collections.emptyMap() : latestView.visibleAt(versions.keySet(), timeStamp);
+        List<K> fetched = new ArrayList<>();
+        List<String> nodeKeys = new ArrayList<>();
+        for (Map.Entry<K, Long> e : versions.entrySet()) {
+            if (!current.containsKey(e.getKey())) {
+                fetched.add(e.getKey());
+                nodeKeys.add(trees.get(e.getKey()).absoluteFind(String.valueOf(e.getValue())));
+            }
+        }
+        List<String> nodes;
+        if (store instanceof BatchKVStore batch) {
+            nodes = batch.getAll(nodeKeys);
+            metrics.storeGets(1);
+        } else {
+            nodes = new ArrayList<>(nodeKeys.size());
+            for (String nodeKey : nodeKeys) {
+                nodes.add(store.get(nodeKey));
+            }
+            metrics.storeGets(nodeKeys.size());
+        }
+
+        List<Map.Entry<K, P>> outList = new ArrayList<>(versions.size());
+        int f = 0;
+        for (K k : versions.keySet()) {
+            P fromView = current.get(k);
+            if (fromView != null) {
+                outList.add(new SimpleImmutableEntry<>(k, fromView));
+            } else {
+                nodeRecord visible = parseNode(nodes.get(f++));
+                if (visible != null)
+                    outList.add(new SimpleImmutableEntry<>(k, decode(k, visible)));
+            }
+        }
+        if (start != 0L)
+            metrics.latency(MvmMetrics.Op.RANGE_SNAPSHOT, System.nanoTime() - start);
+        return outList.iterator();
+    }
+
+    private P decode(K k, nodeRecord record) {
+        if (payloadCache == null)
+            return payloadSerializer.deSerialize(record.payload);
+        P cached = payloadCache.get(k, record.ts);
+        if (cached != null) {
+            metrics.cacheHit("payload");
+            return cached;
+        }
+        metrics.cacheMiss("payload");
+        P decoded = payloadSerializer.deSerialize(record.payload);
+        payloadCache.put(k, record.ts, decoded, record.payload.length());
+        return decoded;
+    }
+
     private nodeRecord readAbsoluteGeneric(String absoluteKey) {
         try {
             String json = store.get(absoluteKey);
+            metrics.storeGets(1);
             if (json == null)
                 return null;
             return oMapper.readValue(json, nodeRecord.class);
@@ -343,4 +1005,92 @@ public final class BackedVWeaverMVM<K extends Comparable<? super K>, P> implemen
             throw new RuntimeException("Read Generic failed", exception);
         }
     }
+
+    // A key never loses its versions, so it is visible at t iff its first version is <= t. Keys
+    // found through the store index are counted from the first version in their meta; only metas
+    // written before it was recorded are resolved.
+    @Override
+    public long count(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp) {
+        if (keyIndex != null)
+            return countDiscovered(discover(fromKey, fromInclusive, toKey, toInclusive, 0), timeStamp);
+        if (trees.isEmpty())
+            return 0;
+        long n = 0;
+        for (K k : trees.subMap(fromKey, fromInclusive, toKey, toInclusive).keySet()) {
+            if (catalog.firstVersion(k) <= timeStamp)
+                n++;
+        }
+        return n;
+    }
+
+    @Override
+    public long count(long timeStamp) {
+        if (keyIndex != null)
+            return countDiscovered(discover(null, false, null, false, 0), timeStamp);
+        return catalog.keysVisibleAt(timeStamp);
+    }
+
+    private long countDiscovered(NavigableMap<K, listHandle> keys, long timeStamp) {
+        long n = 0;
+        for (Map.Entry<K, listHandle> e : keys.entrySet()) {
+            Long first = e.getValue().meta.firstVersion;
+            if (first != null ? first <= timeStamp : visibleEntry(e.getKey(), e.getValue(), timeStamp) != null)
+                n++;
+        }
+        return n;
+    }
+
+    @Override
+    public <V> Optional<V> aggregate(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        if (keyIndex != null)
+            return aggregateOver(discover(fromKey, fromInclusive, toKey, toInclusive, 0), timeStamp, extractor, combiner);
+        if (trees.isEmpty())
+            return Optional.empty();
+        return aggregateOver(trees.subMap(fromKey, fromInclusive, toKey, toInclusive), timeStamp, extractor, combiner);
+    }
+
+    @Override
+    public <V> Optional<V> aggregate(long timeStamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        return aggregateOver((keyIndex != null) ? discover(null, false, null, false, 0) : trees, timeStamp, extractor, combiner);
+    }
+
+    /**
+     * Like aggregate, but extractor reads the payloads as stored, so none is deserialized.
+     */
+    @Override
+    public <V> Optional<V> aggregateSerialized(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp, Function<String, ? extends V> extractor, BinaryOperator<V> combiner) {
+        if (keyIndex != null)
+            return aggregateOver(discover(fromKey, fromInclusive, toKey, toInclusive, 0), timeStamp, (k, node) -> node.payload, payloadSerializer::serialize, extractor, combiner);
+        if (trees.isEmpty())
+            return Optional.empty();
+        return aggregateOver(trees.subMap(fromKey, fromInclusive, toKey, toInclusive), timeStamp, (k, node) -> node.payload, payloadSerializer::serialize, extractor, combiner);
+    }
+
+    private <V> Optional<V> aggregateOver(NavigableMap<K, listHandle> handles, long timeStamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        return aggregateOver(handles, timeStamp, this::decode, p -> p, extractor, combiner);
+    }
+
+    // Every run of keys is resolved like a range snapshot, i.e. batched where the store allows it.
+    // Runs are disjoint, so each list is only read by one thread.
+    private <T, V> Optional<V> aggregateOver(NavigableMap<K, listHandle> handles, long timeStamp, BiFunction<K, nodeRecord, T> fromNode, Function<? super P, ? extends T> fromView, Function<? super T, ? extends V> extractor, BinaryOperator<V> combiner) {
+        if (handles.isEmpty())
+            return Optional.empty();
+        List<K> keys = new ArrayList<>(handles.keySet());
+        return ParallelAggregate.run(keys, aggregateParallelism,
+                run -> {
+                    Iterator<Map.Entry<K, T>> visible = resolveOver(handles.subMap(run.get(0), true, run.get(run.size() - 1), true), timeStamp, fromNode, fromView);
+                    return new Iterator<T>() {
+                        @Override
+                        public boolean hasNext() {
+                            return visible.hasNext();
+                        }
+
+                        @Override
+                        public T next() {
+                            return visible.next().getValue();
+                        }
+                    };
+                },
+                extractor, combiner);
+    }
 }
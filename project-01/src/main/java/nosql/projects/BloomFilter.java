@@ -0,0 +1,82 @@
+package nosql.projects;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size Bloom filter over 64-bit hashes. The bits are plain long words, so a filter can be
+ * persisted with {@link #words()} and restored with {@link #BloomFilter(long[], int)}.
+ * Probe positions use double hashing on the two halves of the hash.
+ */
+public final class BloomFilter {
+    private final long[] words;
+    private final int hashes;
+    private final long bitCount;
+
+    public BloomFilter(int expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions < 1)
+            throw new IllegalArgumentException("expectedInsertions must be positive");
+        if (!(falsePositiveRate > 0.0 && falsePositiveRate < 1.0))
+            throw new IllegalArgumentException("falsePositiveRate must be in (0, 1)");
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.words = new long[(int) Math.max(1L, (bits + 63) / 64)];
+        this.bitCount = words.length * 64L;
+        this.hashes = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * ln2));
+    }
+
+    public BloomFilter(long[] words, int hashes) {
+        if (words.length == 0 || hashes < 1)
+            throw new IllegalArgumentException("Empty filter");
+        this.words = words.clone();
+        this.hashes = hashes;
+        this.bitCount = words.length * 64L;
+    }
+
+    /**
+     * Spreads o.hashCode() over 64 bits (murmur3 finalizer).
+     */
+    public static long hash(Object o) {
+        long h = o.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if hash was never added; true if it probably was
+     */
+    public boolean mightContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    public long[] words() {
+        return words.clone();
+    }
+
+    public int hashes() {
+        return hashes;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0L);
+    }
+}
@@ -0,0 +1,56 @@
+package nosql.projects;
+
+import java.util.function.UnaryOperator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The visibility walk of {@link nosql.projects.Material.TraversableKVStore}, for stores that run
+ * it next to their data.
+ */
+final class ChainWalk {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private ChainWalk() {}
+
+    static String findVisible(UnaryOperator<String> get, String headKey, String nodePrefix, long t) {
+        String key = headKey;
+        while (key != null) {
+            String json = get.apply(key);
+            if (json == null)
+                return null;
+            JsonNode node = parse(json);
+            if (node.path("ts").asLong() <= t)
+                return json;
+            String next = null;
+            String ridgy = pointer(node, "ridgyKey");
+            if (ridgy != null) {
+                String ridgyJson = get.apply(nodePrefix + ridgy);
+                if (ridgyJson != null && parse(ridgyJson).path("ts").asLong() > t)
+                    next = nodePrefix + ridgy;
+            }
+            if (next == null) {
+                String nextKey = pointer(node, "nextKey");
+                next = (nextKey == null) ? null : nodePrefix + nextKey;
+            }
+            key = next;
+        }
+        return null;
+    }
+
+    private static String pointer(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        if (value == null || value.isNull() || value.asText().isEmpty())
+            return null;
+        return value.asText();
+    }
+
+    private static JsonNode parse(String json) {
+        try {
+            return MAPPER.readTree(json);
+        } catch (Exception exception) {
+            throw new RuntimeException("Corrupt node", exception);
+        }
+    }
+}
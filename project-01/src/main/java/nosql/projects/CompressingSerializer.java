@@ -0,0 +1,184 @@
+package nosql.projects;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import nosql.projects.Material.KVStore;
+import nosql.projects.Material.Serializer;
+
+/**
+ * Compresses the serialized form of payloads of at least threshold characters with Deflate,
+ * optionally primed with a dictionary trained on sample payloads. Versions of the same key repeat
+ * most of their content, so a dictionary built from a few of them lets even short payloads shrink.
+ *
+ * The dictionary is kept in the namespace's store under "CZ:__dict__:" + id, so every reader of
+ * the namespace can decompress. Compressed values are "~z" + id + ":" + Base64; values below the
+ * threshold are stored as they are ("~r" is put in front of those that happen to start with '~').
+ */
+public final class CompressingSerializer<P> implements Serializer<P> {
+    private static final String DICT_PREFIX = "CZ:__dict__:";
+    private static final String CURRENT_DICT = "CZ:__dict__";
+    private static final char MARKER = '~';
+    private static final String COMPRESSED = "~z";
+    private static final String RAW = "~r";
+    // Deflate only looks back 32 KiB, so a larger dictionary would never be referenced.
+    private static final int MAX_DICTIONARY = 32 * 1024;
+
+    private final Serializer<P> inner;
+    private final KVStore store;
+    private final int threshold;
+    private final int level;
+    private final Map<Integer, byte[]> dictionaries = new LinkedHashMap<>();
+    private volatile int currentDictionary;
+
+    public CompressingSerializer(Serializer<P> inner, KVStore store, int threshold) {
+        this(inner, store, threshold, Deflater.BEST_SPEED);
+    }
+
+    public CompressingSerializer(Serializer<P> inner, KVStore store, int threshold, int level) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold must not be negative");
+        this.inner = Objects.requireNonNull(inner);
+        this.store = Objects.requireNonNull(store);
+        this.threshold = threshold;
+        this.level = level;
+        String current = store.get(CURRENT_DICT);
+        this.currentDictionary = (current == null) ? 0 : Integer.parseInt(current);
+    }
+
+    /**
+     * Builds a dictionary from samples and uses it for every payload compressed from now on.
+     * Payloads compressed with an earlier dictionary stay readable.
+     * @return the id of the new dictionary
+     */
+    public synchronized int train(List<P> samples) {
+        if (samples.isEmpty())
+            throw new IllegalArgumentException("No samples");
+        // Deflate encodes short distances cheaper, so the most common samples go last.
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (P sample : samples) {
+            counts.merge(inner.serialize(sample), 1, Integer::sum);
+        }
+        List<Map.Entry<String, Integer>> ordered = new ArrayList<>(counts.entrySet());
+        ordered.sort(Map.Entry.comparingByValue());
+
+        // Keep the most common samples that fit, then lay them out least common first.
+        int kept = 0;
+        int size = 0;
+        for (int i = ordered.size() - 1; i >= 0; i--) {
+            int length = ordered.get(i).getKey().getBytes(StandardCharsets.UTF_8).length;
+            if (size + length > MAX_DICTIONARY)
+                break;
+            size += length;
+            kept++;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        for (int i = ordered.size() - kept; i < ordered.size(); i++) {
+            out.writeBytes(ordered.get(i).getKey().getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] dictionary = out.toByteArray();
+
+        int id = currentDictionary + 1;
+        store.put(DICT_PREFIX + id, Base64.getEncoder().encodeToString(dictionary));
+        store.put(CURRENT_DICT, String.valueOf(id));
+        dictionaries.put(id, dictionary);
+        currentDictionary = id;
+        return id;
+    }
+
+    @Override
+    public String serialize(P p) {
+        String serialized = inner.serialize(p);
+        if (serialized.length() < threshold)
+            return raw(serialized);
+
+        int id = currentDictionary;
+        byte[] compressed = deflate(serialized.getBytes(StandardCharsets.UTF_8), dictionary(id));
+        String encoded = COMPRESSED + id + ":" + Base64.getEncoder().encodeToString(compressed);
+        return (encoded.length() < serialized.length()) ? encoded : raw(serialized);
+    }
+
+    private static String raw(String serialized) {
+        return (!serialized.isEmpty() && serialized.charAt(0) == MARKER) ? RAW + serialized : serialized;
+    }
+
+    @Override
+    public P deSerialize(String serializedT) {
+        if (serializedT.startsWith(RAW))
+            return inner.deSerialize(serializedT.substring(RAW.length()));
+        if (!serializedT.startsWith(COMPRESSED))
+            return inner.deSerialize(serializedT);
+
+        int colon = serializedT.indexOf(':', COMPRESSED.length());
+        int id = Integer.parseInt(serializedT, COMPRESSED.length(), colon, 10);
+        byte[] compressed = Base64.getDecoder().decode(serializedT.substring(colon + 1));
+        return inner.deSerialize(new String(inflate(compressed, dictionary(id)), StandardCharsets.UTF_8));
+    }
+
+    private byte[] dictionary(int id) {
+        if (id == 0)
+            return null;
+        synchronized (this) {
+            byte[] dictionary = dictionaries.get(id);
+            if (dictionary == null) {
+                String stored = store.get(DICT_PREFIX + id);
+                if (stored == null)
+                    throw new IllegalStateException("Missing compression dictionary " + id);
+                dictionary = Base64.getDecoder().decode(stored);
+                dictionaries.put(id, dictionary);
+            }
+            return dictionary;
+        }
+    }
+
+    private byte[] deflate(byte[] input, byte[] dictionary) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null)
+                deflater.setDictionary(dictionary);
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length);
+            byte[] buffer = new byte[Math.max(64, input.length)];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input, byte[] dictionary) {
+        // raw deflate streams carry no dictionary id, so it is set up front
+        Inflater inflater = new Inflater(true);
+        try {
+            if (dictionary != null)
+                inflater.setDictionary(dictionary);
+            inflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 4);
+            byte[] buffer = new byte[Math.max(256, input.length * 4)];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IllegalStateException("Truncated compressed payload");
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException exception) {
+            throw new RuntimeException("Inflate failed", exception);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package nosql.projects;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import nosql.projects.Material.MultiVersionMap;
+
+/**
+ * Bulk loads a CSV into a MultiVersionMap. A reader thread cuts the input into batches of rows,
+ * parser threads turn batches into (key, payload) entries in parallel, and the calling thread
+ * commits the batches in input order, so versions are assigned in file order. Each batch is one
+ * {@link MultiVersionMap#commit} and shares one version; a row whose key already occurs earlier in
+ * its batch starts a new commit, so no row is lost. The target map must support commit.
+ *
+ * At most queueCapacity parsed or in-progress batches exist at a time; when the committer falls
+ * behind, the reader blocks instead of buffering the file.
+ */
+public final class CsvIngestPipeline<K extends Comparable<? super K>, P> {
+
+    /**
+     * @param rows rows committed so far
+     * @param nanos time since the load started
+     */
+    public record Stats(long rows, long nanos) {
+        public double rowsPerSecond() {
+            return (nanos == 0) ? 0.0 : rows * 1_000_000_000.0 / nanos;
+        }
+    }
+
+    private final MultiVersionMap<K, P> target;
+    private final Function<String[], Map.Entry<K, P>> rowMapper;
+    private final int parallelism;
+    private final int batchSize;
+    private final int queueCapacity;
+    private long progressEvery;
+    private Consumer<Stats> progress;
+
+    public CsvIngestPipeline(MultiVersionMap<K, P> target, Function<String[], Map.Entry<K, P>> rowMapper, int parallelism, int batchSize, int queueCapacity) {
+        if (parallelism < 1 || batchSize < 1 || queueCapacity < 1)
+            throw new IllegalArgumentException("parallelism, batchSize and queueCapacity must be positive");
+        this.target = Objects.requireNonNull(target);
+        this.rowMapper = Objects.requireNonNull(rowMapper);
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Reports progress to listener about every everyRows committed rows, from the committing thread.
+     */
+    public CsvIngestPipeline<K, P> withProgress(long everyRows, Consumer<Stats> listener) {
+        if (everyRows < 1)
+            throw new IllegalArgumentException("everyRows must be positive");
+        this.progressEvery = everyRows;
+        this.progress = Objects.requireNonNull(listener);
+        return this;
+    }
+
+    /**
+     * Loads every row of reader into the target map. Returns once the last row is committed.
+     * @param skipHeader whether the first row is a header
+     */
+    public Stats run(CsvReader reader, boolean skipHeader) {
+        long start = System.nanoTime();
+        BlockingQueue<Future<List<Map.Entry<K, P>>>> inOrder = new ArrayBlockingQueue<>(queueCapacity);
+        // marks the end of input; compared by identity
+        Future<List<Map.Entry<K, P>>> end = CompletableFuture.completedFuture(null);
+        ExecutorService parsers = Executors.newFixedThreadPool(parallelism);
+        ExecutorService producer = Executors.newSingleThreadExecutor();
+        long rows = 0;
+        try {
+            Future<?> reading = producer.submit(() -> {
+                try {
+                    if (skipHeader)
+                        reader.next();
+                    List<String[]> batch = new ArrayList<>(batchSize);
+                    String[] row;
+                    while ((row = reader.next()) != null) {
+                        batch.add(row);
+                        if (batch.size() == batchSize) {
+                            inOrder.put(parsers.submit(parseTask(batch)));
+                            batch = new ArrayList<>(batchSize);
+                        }
+                    }
+                    if (!batch.isEmpty())
+                        inOrder.put(parsers.submit(parseTask(batch)));
+                } catch (IOException | RuntimeException exception) {
+                    inOrder.put(CompletableFuture.failedFuture(exception));
+                }
+                inOrder.put(end);
+                return null;
+            });
+
+            long nextReport = progressEvery;
+            Future<List<Map.Entry<K, P>>> next;
+            while ((next = inOrder.take()) != end) {
+                List<Map.Entry<K, P>> batch = next.get();
+                commitInOrder(batch);
+                rows += batch.size();
+                if (progress != null && rows >= nextReport) {
+                    progress.accept(new Stats(rows, System.nanoTime() - start));
+                    nextReport = rows + progressEvery;
+                }
+            }
+            reading.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Ingest interrupted", exception);
+        } catch (ExecutionException exception) {
+            throw new RuntimeException("Ingest failed", exception.getCause());
+        } finally {
+            // unblocks a reader waiting for queue space if the committing thread stopped early
+            producer.shutdownNow();
+            parsers.shutdownNow();
+        }
+        return new Stats(rows, System.nanoTime() - start);
+    }
+
+    // one commit per run of distinct keys; a whole batch unless a key repeats in it
+    private void commitInOrder(List<Map.Entry<K, P>> batch) {
+        Map<K, P> run = new HashMap<>();
+        for (Map.Entry<K, P> e : batch) {
+            if (run.containsKey(e.getKey())) {
+                target.commit(run);
+                run = new HashMap<>();
+            }
+            run.put(e.getKey(), e.getValue());
+        }
+        if (!run.isEmpty())
+            target.commit(run);
+    }
+
+    private Callable<List<Map.Entry<K, P>>> parseTask(List<String[]> batch) {
+        return () -> {
+            List<Map.Entry<K, P>> parsed = new ArrayList<>(batch.size());
+            for (String[] row : batch) {
+                parsed.add(rowMapper.apply(row));
+            }
+            return parsed;
+        };
+    }
+}
@@ -0,0 +1,143 @@
+package nosql.projects;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Streaming RFC 4180 reader over a byte channel. Rows are parsed straight from a fixed read buffer
+ * without building line strings; quoted fields may contain commas, doubled quotes and line breaks.
+ * Input is UTF-8; fields are decoded only once they are complete.
+ */
+public final class CsvReader implements AutoCloseable {
+    private static final int DEFAULT_BUFFER = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private byte[] field = new byte[256];
+    private int fieldLength;
+    private boolean eof;
+    private long rows;
+
+    public CsvReader(ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER);
+    }
+
+    public CsvReader(ReadableByteChannel channel, int bufferSize) {
+        this.channel = Objects.requireNonNull(channel);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.buffer.flip();
+    }
+
+    public static CsvReader open(Path path) throws IOException {
+        return new CsvReader(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * @return the fields of the next row, or null at the end of the input; blank lines are skipped
+     */
+    public String[] next() throws IOException {
+        List<String> fields = new ArrayList<>();
+        fieldLength = 0;
+        boolean quoted = false;
+        boolean any = false;
+        int b;
+        while ((b = read()) >= 0) {
+            if (!any && (b == '\n' || b == '\r')) {
+                if (b == '\r' && peek() == '\n')
+                    read();
+                continue;
+            }
+            any = true;
+            if (quoted) {
+                if (b == '"') {
+                    int following = peek();
+                    if (following == '"') {
+                        read();
+                        append(b);
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    append(b);
+                }
+            } else if (b == '"') {
+                quoted = true;
+            } else if (b == ',') {
+                fields.add(take());
+            } else if (b == '\n') {
+                break;
+            } else if (b == '\r') {
+                if (peek() == '\n')
+                    read();
+                break;
+            } else {
+                append(b);
+            }
+        }
+        if (!any)
+            return null;
+        if (quoted)
+            throw new IOException("Unterminated quoted field in row " + (rows + 1));
+        fields.add(take());
+        rows++;
+        return fields.toArray(new String[0]);
+    }
+
+    public long rowsRead() {
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill())
+            return -1;
+        return buffer.get() & 0xff;
+    }
+
+    private int peek() throws IOException {
+        if (!buffer.hasRemaining() && !fill())
+            return -1;
+        return buffer.get(buffer.position()) & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof)
+            return false;
+        buffer.clear();
+        int n;
+        do {
+            n = channel.read(buffer);
+        } while (n == 0);
+        buffer.flip();
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void append(int b) {
+        if (fieldLength == field.length)
+            field = Arrays.copyOf(field, field.length * 2);
+        field[fieldLength++] = (byte) b;
+    }
+
+    private String take() {
+        String value = new String(field, 0, fieldLength, StandardCharsets.UTF_8);
+        fieldLength = 0;
+        return value;
+    }
+}
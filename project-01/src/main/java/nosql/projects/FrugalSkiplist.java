@@ -1,8 +1,5 @@
 package nosql.projects;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import nosql.projects.Material.VersionList;
 
 public final class FrugalSkiplist<P> implements VersionList <P> {
@@ -22,22 +19,20 @@ public final class FrugalSkiplist<P> implements VersionList <P> {
     
     private Node<P> head;
     private long count = 0;
-    private final List<Node<P>> lastAtLevel = new ArrayList<>();
+    // count is a long, so a level (its number of trailing zeros) never exceeds 63
+    @SuppressWarnings("unchecked")
+    private final Node<P>[] lastAtLevel = (Node<P>[]) new Node<?>[Long.SIZE];
 
     @Override
     public void append(P point, long timeStamp) {
         count++;
         int level = Long.numberOfTrailingZeros(count);
-        
-        while (lastAtLevel.size() <= level) {
-            lastAtLevel.add(null);
-        }
 
-        Node<P> ridgyTarget = lastAtLevel.get(level);
+        Node<P> ridgyTarget = lastAtLevel[level];
         Node<P> newHead = new Node<>(timeStamp, point, head, ridgyTarget);
 
         head = newHead;
-        lastAtLevel.set(level, newHead);
+        lastAtLevel[level] = newHead;
     }
 
     @Override
@@ -0,0 +1,187 @@
+package nosql.projects;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+import nosql.projects.Material.MvmMetrics;
+
+/**
+ * Collecting MvmMetrics: a latency histogram per operation, a histogram of findVisible hops, and
+ * counters for store accesses, serialization time and cache hits. Can be published over JMX.
+ */
+public final class HistogramMetrics implements MvmMetrics, MvmMetricsMXBean {
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Op.values().length];
+    private final LatencyHistogram hops = new LatencyHistogram();
+    private final LongAdder storeGets = new LongAdder();
+    private final LongAdder storePuts = new LongAdder();
+    private final LongAdder serializationNanos = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    public HistogramMetrics() {
+        for (Op op : Op.values()) {
+            latencies[op.ordinal()] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Registers this instance with the platform MBean server as
+     * nosql.projects:type=MvmMetrics,name=&lt;name&gt;.
+     */
+    public HistogramMetrics registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("nosql.projects:type=MvmMetrics,name=" + ObjectName.quote(name)));
+            return this;
+        } catch (Exception exception) {
+            throw new RuntimeException("MBean registration failed", exception);
+        }
+    }
+
+    public LatencyHistogram latency(Op op) {
+        return latencies[op.ordinal()];
+    }
+
+    public LatencyHistogram hops() {
+        return hops;
+    }
+
+    @Override
+    public boolean enabled() {
+        return true;
+    }
+
+    @Override
+    public void latency(Op op, long nanos) {
+        latencies[op.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void hops(int count) {
+        hops.record(count);
+    }
+
+    @Override
+    public void storeGets(int count) {
+        storeGets.add(count);
+    }
+
+    @Override
+    public void storePuts(int count) {
+        storePuts.add(count);
+    }
+
+    @Override
+    public void serialization(long nanos) {
+        serializationNanos.add(nanos);
+    }
+
+    @Override
+    public void cacheHit(String cache) {
+        cacheHits.increment();
+    }
+
+    @Override
+    public void cacheMiss(String cache) {
+        cacheMisses.increment();
+    }
+
+    @Override
+    public long getGetCount() {
+        return latency(Op.GET).count();
+    }
+
+    @Override
+    public double getGetMeanMicros() {
+        return latency(Op.GET).mean() / 1_000.0;
+    }
+
+    @Override
+    public double getGetP99Micros() {
+        return latency(Op.GET).percentile(0.99) / 1_000.0;
+    }
+
+    @Override
+    public long getAppendCount() {
+        return latency(Op.APPEND).count();
+    }
+
+    @Override
+    public double getAppendMeanMicros() {
+        return latency(Op.APPEND).mean() / 1_000.0;
+    }
+
+    @Override
+    public double getAppendP99Micros() {
+        return latency(Op.APPEND).percentile(0.99) / 1_000.0;
+    }
+
+    @Override
+    public long getRangeSnapshotCount() {
+        return latency(Op.RANGE_SNAPSHOT).count();
+    }
+
+    @Override
+    public double getRangeSnapshotMeanMicros() {
+        return latency(Op.RANGE_SNAPSHOT).mean() / 1_000.0;
+    }
+
+    @Override
+    public double getRangeSnapshotP99Micros() {
+        return latency(Op.RANGE_SNAPSHOT).percentile(0.99) / 1_000.0;
+    }
+
+    @Override
+    public double getHopsMean() {
+        return hops.mean();
+    }
+
+    @Override
+    public long getHopsP99() {
+        return hops.percentile(0.99);
+    }
+
+    @Override
+    public double getStoreGetsPerCall() {
+        return perCall(storeGets.sum());
+    }
+
+    @Override
+    public double getStorePutsPerCall() {
+        return perCall(storePuts.sum());
+    }
+
+    @Override
+    public double getSerializationMillis() {
+        return serializationNanos.sum() / 1_000_000.0;
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long hits = cacheHits.sum();
+        long total = hits + cacheMisses.sum();
+        return (total == 0) ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : latencies) {
+            h.reset();
+        }
+        hops.reset();
+        storeGets.reset();
+        storePuts.reset();
+        serializationNanos.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+
+    private double perCall(long total) {
+        long calls = 0;
+        for (LatencyHistogram h : latencies) {
+            calls += h.count();
+        }
+        return (calls == 0) ? 0.0 : (double) total / calls;
+    }
+}
@@ -0,0 +1,237 @@
+package nosql.projects;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import nosql.projects.Material.BatchKVStore;
+import nosql.projects.Material.FlushableKVStore;
+import nosql.projects.Material.OrderedKVStore;
+import nosql.projects.Material.TraversableKVStore;
+
+/**
+ * Reference store for tests and benchmarks without Redis. Keys are spread over several
+ * ConcurrentHashMaps; every access is counted per operation type (operations, bytes, round trips)
+ * and can be delayed by a fixed latency to model a remote store.
+ */
+public final class InMemoryKVStore implements FlushableKVStore, BatchKVStore, TraversableKVStore, OrderedKVStore {
+    private static final int DEFAULT_SHARDS = 16;
+    private static final long SPIN_THRESHOLD_NANOS = 50_000L;
+
+    public enum OpType { GET, PUT }
+
+    /**
+     * @param ops number of keys read or written
+     * @param bytes key and value characters transferred (equal to bytes for ASCII data)
+     * @param roundTrips number of calls; a batch is one round trip for many ops
+     */
+    public record OpStats(long ops, long bytes, long roundTrips) {}
+
+    private static final class Counter {
+        final LongAdder ops = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder roundTrips = new LongAdder();
+    }
+
+    private final ConcurrentHashMap<String, String>[] shards;
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<String>> indexes = new ConcurrentHashMap<>();
+    private final Counter[] counters = new Counter[OpType.values().length];
+    private final long getLatencyNanos;
+    private final long putLatencyNanos;
+    private final boolean traversal;
+
+    public InMemoryKVStore() {
+        this(DEFAULT_SHARDS, 0L, 0L, false);
+    }
+
+    public InMemoryKVStore(int shardCount, long getLatencyNanos, long putLatencyNanos) {
+        this(shardCount, getLatencyNanos, putLatencyNanos, false);
+    }
+
+    /**
+     * @param traversal whether version lists may walk their chains inside this store (see
+     *        {@link TraversableKVStore}); a walk then counts and is delayed as a single get, however
+     *        many nodes it visits, so leave it off to measure the per-node cost of a remote store
+     */
+    public InMemoryKVStore(int shardCount, long getLatencyNanos, long putLatencyNanos, boolean traversal) {
+        if (shardCount < 1)
+            throw new IllegalArgumentException("shardCount must be positive");
+        if (getLatencyNanos < 0 || putLatencyNanos < 0)
+            throw new IllegalArgumentException("Latency must not be negative");
+        @SuppressWarnings("unchecked")
+        ConcurrentHashMap<String, String>[] shards = (ConcurrentHashMap<String, String>[]) new ConcurrentHashMap<?, ?>[shardCount];
+        this.shards = shards;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new ConcurrentHashMap<>();
+        }
+        for (OpType type : OpType.values()) {
+            counters[type.ordinal()] = new Counter();
+        }
+        this.getLatencyNanos = getLatencyNanos;
+        this.putLatencyNanos = putLatencyNanos;
+        this.traversal = traversal;
+    }
+
+    private ConcurrentHashMap<String, String> shard(String storeKey) {
+        int h = storeKey.hashCode();
+        return shards[((h ^ (h >>> 16)) & 0x7fffffff) % shards.length];
+    }
+
+    @Override
+    public void put(String storeKey, String storeValue) {
+        delay(putLatencyNanos);
+        shard(storeKey).put(storeKey, storeValue);
+        count(OpType.PUT, 1, storeKey.length() + storeValue.length());
+    }
+
+    @Override
+    public String get(String storeKey) {
+        delay(getLatencyNanos);
+        String value = shard(storeKey).get(storeKey);
+        count(OpType.GET, 1, storeKey.length() + (value == null ? 0 : value.length()));
+        return value;
+    }
+
+    @Override
+    public void putAll(Map<String, String> entries) {
+        delay(putLatencyNanos);
+        long bytes = 0;
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            shard(e.getKey()).put(e.getKey(), e.getValue());
+            bytes += e.getKey().length() + e.getValue().length();
+        }
+        count(OpType.PUT, entries.size(), bytes);
+    }
+
+    @Override
+    public List<String> getAll(List<String> storeKeys) {
+        delay(getLatencyNanos);
+        List<String> values = new ArrayList<>(storeKeys.size());
+        long bytes = 0;
+        for (String storeKey : storeKeys) {
+            String value = shard(storeKey).get(storeKey);
+            values.add(value);
+            bytes += storeKey.length() + (value == null ? 0 : value.length());
+        }
+        count(OpType.GET, storeKeys.size(), bytes);
+        return values;
+    }
+
+    @Override
+    public boolean traversalSupported() {
+        return traversal;
+    }
+
+    @Override
+    public String findVisible(String headKey, String nodePrefix, long t) {
+        delay(getLatencyNanos);
+        String value = walk(headKey, nodePrefix, t);
+        count(OpType.GET, 1, (headKey == null ? 0 : headKey.length()) + (value == null ? 0 : value.length()));
+        return value;
+    }
+
+    @Override
+    public List<String> findVisibleAll(List<String> headKeys, List<String> nodePrefixes, long t) {
+        delay(getLatencyNanos);
+        List<String> values = new ArrayList<>(headKeys.size());
+        long bytes = 0;
+        for (int i = 0; i < headKeys.size(); i++) {
+            String value = walk(headKeys.get(i), nodePrefixes.get(i), t);
+            values.add(value);
+            bytes += (headKeys.get(i) == null ? 0 : headKeys.get(i).length()) + (value == null ? 0 : value.length());
+        }
+        count(OpType.GET, headKeys.size(), bytes);
+        return values;
+    }
+
+    // Hops stay inside the store: they are neither delayed nor counted.
+    private String walk(String headKey, String nodePrefix, long t) {
+        return ChainWalk.findVisible(key -> shard(key).get(key), headKey, nodePrefix, t);
+    }
+
+    @Override
+    public void addToIndex(String index, String member) {
+        delay(putLatencyNanos);
+        indexes.computeIfAbsent(index, i -> new ConcurrentSkipListSet<>()).add(member);
+        count(OpType.PUT, 1, index.length() + member.length());
+    }
+
+    @Override
+    public List<String> scanIndex(String index, String from, boolean fromInclusive, String to, boolean toInclusive, int limit) {
+        delay(getLatencyNanos);
+        List<String> members = new ArrayList<>();
+        NavigableSet<String> set = indexes.get(index);
+        if (set != null) {
+            if (from != null)
+                set = set.tailSet(from, fromInclusive);
+            if (to != null)
+                set = set.headSet(to, toInclusive);
+            long bytes = index.length();
+            for (String member : set) {
+                if (limit > 0 && members.size() == limit)
+                    break;
+                members.add(member);
+                bytes += member.length();
+            }
+            count(OpType.GET, members.size(), bytes);
+        } else {
+            count(OpType.GET, 0, index.length());
+        }
+        return members;
+    }
+
+    @Override
+    public void flushDB() {
+        for (ConcurrentHashMap<String, String> shard : shards) {
+            shard.clear();
+        }
+        indexes.clear();
+    }
+
+    public long size() {
+        long size = 0;
+        for (ConcurrentHashMap<String, String> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public OpStats stats(OpType type) {
+        Counter c = counters[type.ordinal()];
+        return new OpStats(c.ops.sum(), c.bytes.sum(), c.roundTrips.sum());
+    }
+
+    public void resetStats() {
+        for (Counter c : counters) {
+            c.ops.reset();
+            c.bytes.reset();
+            c.roundTrips.reset();
+        }
+    }
+
+    private void count(OpType type, long ops, long bytes) {
+        Counter c = counters[type.ordinal()];
+        c.ops.add(ops);
+        c.bytes.add(bytes);
+        c.roundTrips.increment();
+    }
+
+    private static void delay(long nanos) {
+        if (nanos <= 0)
+            return;
+        long deadline = System.nanoTime() + nanos;
+        // parkNanos overshoots short waits by tens of microseconds, so those are spun instead.
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS)
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            else
+                Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package nosql.projects;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import nosql.projects.Material.MultiVersionMap;
+import nosql.projects.Material.ReusableEntry;
+
+/**
+ * MultiVersionMap with secondary indexes on payload fields. Each index is an extractor on P that
+ * is applied on append; a query for value X at t then resolves only the keys whose indexed value
+ * was X at t, instead of deserializing a whole snapshot.
+ *
+ * Per index, a posting list maps every value to the keys that ever had it, each with the version
+ * intervals during which it did. An append that keeps a key's value leaves the intervals as they
+ * are, so an index grows with the number of value changes, not of appends. A key from the posting
+ * list qualifies if one of its intervals contains t; its payload is then read through the primary
+ * map, and the extractor is rechecked on it, so the primary version list stays the authority on
+ * visibility.
+ */
+public final class IndexedMultiVersionMap<K extends Comparable<? super K>, P> implements MultiVersionMap<K, P> {
+
+    // [from, to) version intervals of one key and value, ascending; the last one may be open
+    private static final class Intervals {
+        private static final long OPEN = Long.MAX_VALUE;
+
+        private long[] from = new long[1];
+        private long[] to = new long[1];
+        private int size;
+
+        void open(long version) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+            }
+            from[size] = version;
+            to[size] = OPEN;
+            size++;
+        }
+
+        void close(long version) {
+            to[size - 1] = version;
+        }
+
+        boolean contains(long t) {
+            int i = Arrays.binarySearch(from, 0, size, t);
+            if (i < 0)
+                i = -i - 2;
+            return i >= 0 && t < to[i];
+        }
+    }
+
+    private final class Index {
+        final Function<? super P, ?> extractor;
+        final Map<Object, TreeMap<K, Intervals>> postings = new HashMap<>();
+        // value each key has now; null values are not queryable and have no posting
+        final Map<K, Object> current = new HashMap<>();
+
+        Index(Function<? super P, ?> extractor) {
+            this.extractor = extractor;
+        }
+
+        void recordAppend(K k, long version, P p) {
+            Object value = extractor.apply(p);
+            boolean known = current.containsKey(k);
+            Object previous = current.put(k, value);
+            if (known && Objects.equals(previous, value))
+                return;
+            if (previous != null)
+                postings.get(previous).get(k).close(version);
+            if (value != null)
+                postings.computeIfAbsent(value, v -> new TreeMap<>()).computeIfAbsent(k, key -> new Intervals()).open(version);
+        }
+    }
+
+    private final MultiVersionMap<K, P> primary;
+    private final Map<String, Index> indexes = new LinkedHashMap<>();
+    private boolean appended;
+
+    public IndexedMultiVersionMap(MultiVersionMap<K, P> primary) {
+        this.primary = Objects.requireNonNull(primary);
+    }
+
+    /**
+     * Declares an index named name on extractor(payload). Must be called before the first append,
+     * and on a primary map that is still empty.
+     */
+    public IndexedMultiVersionMap<K, P> withIndex(String name, Function<? super P, ?> extractor) {
+        if (appended)
+            throw new IllegalStateException("Indexes must be declared before the first append");
+        if (indexes.putIfAbsent(Objects.requireNonNull(name), new Index(Objects.requireNonNull(extractor))) != null)
+            throw new IllegalArgumentException("Duplicate index " + name);
+        return this;
+    }
+
+    @Override
+    public long append(K k, P p) {
+        appended = true;
+        long version = primary.append(k, p);
+        for (Index index : indexes.values()) {
+            index.recordAppend(k, version, p);
+        }
+        return version;
+    }
+
+    @Override
+    public long commit(Map<K, P> batch) {
+        appended = true;
+        long version = primary.commit(batch);
+        for (Map.Entry<K, P> e : batch.entrySet()) {
+            for (Index index : indexes.values()) {
+                index.recordAppend(e.getKey(), version, e.getValue());
+            }
+        }
+        return version;
+    }
+
+    /**
+     * @return the visible records at t whose indexed value equals value, in key-order
+     */
+    public Iterator<Map.Entry<K, P>> query(String indexName, Object value, long t) {
+        Index index = indexes.get(indexName);
+        if (index == null)
+            throw new IllegalArgumentException("Unknown index " + indexName);
+        Objects.requireNonNull(value);
+        TreeMap<K, Intervals> keys = index.postings.get(value);
+        Iterator<Map.Entry<K, Intervals>> candidates = (keys == null) ? Collections.emptyIterator() : keys.entrySet().iterator();
+        return new Iterator<>() {
+            private Map.Entry<K, P> next = advance();
+
+            private Map.Entry<K, P> advance() {
+                while (candidates.hasNext()) {
+                    Map.Entry<K, Intervals> candidate = candidates.next();
+                    if (!candidate.getValue().contains(t))
+                        continue;
+                    K k = candidate.getKey();
+                    Map.Entry<K, P> visible = primary.get(k, t);
+                    if (visible != null && value.equals(index.extractor.apply(visible.getValue())))
+                        return visible;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<K, P> next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Map.Entry<K, P> current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    @Override
+    public Map.Entry<K, P> get(K k, long t) {
+        return primary.get(k, t);
+    }
+
+    @Override
+    public boolean get(K k, long t, ReusableEntry<K, P> into) {
+        return primary.get(k, t, into);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, P>> rangeSnapshot(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp) {
+        return primary.rangeSnapshot(fromKey, fromInclusive, toKey, toInclusive, timestamp);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, P>> snapshot(long timestamp) {
+        return primary.snapshot(timestamp);
+    }
+
+    @Override
+    public void forEachVisible(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, BiConsumer<? super K, ? super P> visitor) {
+        primary.forEachVisible(fromKey, fromInclusive, toKey, toInclusive, timestamp, visitor);
+    }
+
+    @Override
+    public List<Map.Entry<K, P>> rangeSnapshotPage(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, int limit) {
+        return primary.rangeSnapshotPage(fromKey, fromInclusive, toKey, toInclusive, timestamp, limit);
+    }
+
+    @Override
+    public long count(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp) {
+        return primary.count(fromKey, fromInclusive, toKey, toInclusive, timestamp);
+    }
+
+    @Override
+    public long count(long timestamp) {
+        return primary.count(timestamp);
+    }
+
+    @Override
+    public <V> Optional<V> aggregate(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        return primary.aggregate(fromKey, fromInclusive, toKey, toInclusive, timestamp, extractor, combiner);
+    }
+
+    @Override
+    public <V> Optional<V> aggregateSerialized(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, Function<String, ? extends V> extractor, BinaryOperator<V> combiner) {
+        return primary.aggregateSerialized(fromKey, fromInclusive, toKey, toInclusive, timestamp, extractor, combiner);
+    }
+
+    @Override
+    public <V> Optional<V> aggregate(long timestamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        return primary.aggregate(timestamp, extractor, combiner);
+    }
+}
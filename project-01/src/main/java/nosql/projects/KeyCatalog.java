@@ -0,0 +1,100 @@
+package nosql.projects;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-map summary of the keys a MultiVersionMap holds: the first and last version of each key.
+ * Lets a read that cannot find anything (unknown key, or a timestamp older than the key's first
+ * version) return before any version list is walked. Since versions are never removed, the first
+ * versions alone also tell how many keys are visible at any t. The catalog lives on the heap, as
+ * the key maps it summarizes do; a map that finds its keys through a store index keeps each key's
+ * first version in the stored list meta instead.
+ */
+final class KeyCatalog<K> {
+    private static final int INITIAL_KEYS = 1024;
+
+    private static final class VersionRange {
+        long first;
+        long last;
+
+        VersionRange(long version) {
+            this.first = version;
+            this.last = version;
+        }
+    }
+
+    private final Map<K, VersionRange> ranges = new HashMap<>();
+    // first version of every key; appends keep it sorted, a bulk load may not
+    private long[] firstVersions = new long[INITIAL_KEYS];
+    private boolean firstVersionsSorted = true;
+
+    void recordAppend(K k, long version) {
+        VersionRange range = ranges.get(k);
+        if (range != null) {
+            range.last = version;
+            return;
+        }
+        ranges.put(k, new VersionRange(version));
+        int n = ranges.size() - 1;
+        if (n == firstVersions.length)
+            firstVersions = Arrays.copyOf(firstVersions, n * 2);
+        if (n > 0 && version < firstVersions[n - 1])
+            firstVersionsSorted = false;
+        firstVersions[n] = version;
+    }
+
+    /**
+     * @return true if k has no version visible at t; false means it may have one
+     */
+    boolean definitelyAbsent(K k, long t) {
+        VersionRange range = ranges.get(k);
+        return range == null || t < range.first;
+    }
+
+    /**
+     * @return true if k is known and has no version at or below t
+     */
+    boolean startsAfter(K k, long t) {
+        VersionRange range = ranges.get(k);
+        return range != null && t < range.first;
+    }
+
+    /**
+     * @return the first version of k, or Long.MAX_VALUE if k is unknown
+     */
+    long firstVersion(K k) {
+        VersionRange range = ranges.get(k);
+        return (range == null) ? Long.MAX_VALUE : range.first;
+    }
+
+    /**
+     * @return the newest version of k, or Long.MIN_VALUE if k is unknown
+     */
+    long lastVersion(K k) {
+        VersionRange range = ranges.get(k);
+        return (range == null) ? Long.MIN_VALUE : range.last;
+    }
+
+    /**
+     * @return number of keys with a version at or below t, i.e. visible at t
+     */
+    int keysVisibleAt(long t) {
+        int n = ranges.size();
+        if (!firstVersionsSorted) {
+            Arrays.sort(firstVersions, 0, n);
+            firstVersionsSorted = true;
+        }
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (firstVersions[mid] <= t)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
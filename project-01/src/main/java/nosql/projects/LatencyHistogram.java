@@ -0,0 +1,87 @@
+package nosql.projects;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram in the style of HdrHistogram: 64 linear sub-buckets per power of two, so
+ * any recorded value is reported within ~3% while the whole long range fits in 1920 counters.
+ * Recording is lock-free.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int MAX_SHIFT = 63 - (SUB_BUCKET_BITS - 1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + MAX_SHIFT * HALF);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double mean() {
+        long n = count.sum();
+        return (n == 0) ? 0.0 : (double) sum.sum() / n;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @param quantile between 0.0 and 1.0
+     * @return the value at the given quantile, 0 if nothing was recorded
+     */
+    public long percentile(double quantile) {
+        long n = count.sum();
+        if (n == 0)
+            return 0L;
+        long target = Math.max(1L, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return Math.min(representative(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0L);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+    }
+
+    private static long representative(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long mantissa = (index - SUB_BUCKETS) % HALF + HALF;
+        // middle of the bucket [mantissa << shift, (mantissa + 1) << shift)
+        return (mantissa << shift) + ((1L << shift) >>> 1);
+    }
+}
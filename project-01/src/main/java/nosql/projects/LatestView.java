@@ -0,0 +1,123 @@
+package nosql.projects;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import nosql.projects.Material.BatchKVStore;
+import nosql.projects.Material.KVStore;
+import nosql.projects.Material.Serializer;
+
+/**
+ * Materialized "current" table of a MultiVersionMap: the newest version of every key, updated on
+ * append. The newest version number of each key always stays on heap, so deciding whether a read
+ * at t can be served from the view needs no store access. The payloads either stay on heap as
+ * well, or live in the store under one "LV:" key per map key, so that a point read is one fetch
+ * and a scan over a {@link BatchKVStore} is one round trip.
+ */
+public final class LatestView<K, P> {
+    public enum Mode { ON_HEAP, STORE }
+
+    private static final String PREFIX = "LV:";
+
+    private final Mode mode;
+    private final KVStore store;
+    private final Serializer<P> serializer;
+    private final Map<K, Long> versions = new HashMap<>();
+    private final Map<K, P> payloads = new HashMap<>();
+
+    public LatestView(Mode mode, KVStore store, Serializer<P> serializer) {
+        this.mode = Objects.requireNonNull(mode);
+        this.store = Objects.requireNonNull(store);
+        this.serializer = Objects.requireNonNull(serializer);
+    }
+
+    void update(K k, long version, P p) {
+        write(k, p);
+        publish(k, version, p);
+    }
+
+    /**
+     * First half of an update: writes the payload to the store, if that is where payloads live.
+     */
+    void write(K k, P p) {
+        if (mode == Mode.STORE)
+            store.put(PREFIX + k, serializer.serialize(p));
+    }
+
+    /**
+     * Second half of an update, once the write is stored: makes version the newest of k.
+     */
+    void publish(K k, long version, P p) {
+        versions.put(k, version);
+        if (mode == Mode.ON_HEAP)
+            payloads.put(k, p);
+    }
+
+    /**
+     * @return true if the newest version of k is visible at t, i.e. the view can answer a read of k at t
+     */
+    boolean covers(K k, long t) {
+        Long newest = versions.get(k);
+        return newest != null && newest <= t;
+    }
+
+    P payload(K k) {
+        if (mode == Mode.ON_HEAP)
+            return payloads.get(k);
+        String serialized = store.get(PREFIX + k);
+        return (serialized == null) ? null : serializer.deSerialize(serialized);
+    }
+
+    /**
+     * @return the current payloads of keys, in the order of keys
+     */
+    List<P> payloads(List<K> keys) {
+        List<P> out = new ArrayList<>(keys.size());
+        if (mode == Mode.ON_HEAP) {
+            for (K k : keys) {
+                out.add(payloads.get(k));
+            }
+            return out;
+        }
+        List<String> storeKeys = new ArrayList<>(keys.size());
+        for (K k : keys) {
+            storeKeys.add(PREFIX + k);
+        }
+        List<String> serialized;
+        if (store instanceof BatchKVStore batch) {
+            serialized = batch.getAll(storeKeys);
+        } else {
+            serialized = new ArrayList<>(storeKeys.size());
+            for (String storeKey : storeKeys) {
+                serialized.add(store.get(storeKey));
+            }
+        }
+        for (String s : serialized) {
+            out.add((s == null) ? null : serializer.deSerialize(s));
+        }
+        return out;
+    }
+
+    /**
+     * Resolves the keys answerable from the view at t in one batch.
+     * @return key -> current payload for every key in keys that {@link #covers(Object, long)} at t
+     */
+    Map<K, P> visibleAt(Iterable<K> keys, long t) {
+        List<K> covered = new ArrayList<>();
+        for (K k : keys) {
+            if (covers(k, t))
+                covered.add(k);
+        }
+        List<P> found = payloads(covered);
+        Map<K, P> out = new LinkedHashMap<>();
+        for (int i = 0; i < covered.size(); i++) {
+            if (found.get(i) != null)
+                out.put(covered.get(i), found.get(i));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,117 @@
+package nosql.projects;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import nosql.projects.Material.LogEntry;
+import nosql.projects.Material.MultiVersionMap;
+import nosql.projects.Material.ReusableEntry;
+
+/**
+ * MultiVersionMap that hands every completed append and commit of the primary map to a shipper,
+ * in version order, e.g. to feed a {@link ReplicaMVM}. Reads go to the primary map unchanged.
+ *
+ * Writes are shipped under the same lock they are applied under, so entries leave in the order of
+ * their versions even when several threads write, and are numbered consecutively from 1.
+ *
+ * An entry counts as shipped once the shipper returns. If it throws, the write stays applied on the
+ * primary and the exception reaches the caller; the entry is kept and shipped again, ahead of the
+ * next one, by the next write, so the replica sees neither a gap nor a reused number.
+ */
+public final class LogShippingMVM<K extends Comparable<? super K>, P> implements MultiVersionMap<K, P> {
+    private final MultiVersionMap<K, P> primary;
+    private final Consumer<? super LogEntry<K, P>> shipper;
+    // sequence number of the last shipped entry; guarded by this
+    private long shipped;
+    // entries after shipped whose shipper call failed, oldest first; guarded by this
+    private final ArrayDeque<LogEntry<K, P>> unshipped = new ArrayDeque<>();
+
+    public LogShippingMVM(MultiVersionMap<K, P> primary, Consumer<? super LogEntry<K, P>> shipper) {
+        this.primary = Objects.requireNonNull(primary);
+        this.shipper = Objects.requireNonNull(shipper);
+    }
+
+    @Override
+    public synchronized long append(K k, P p) {
+        long version = primary.append(k, p);
+        ship(version, Collections.singletonMap(k, p));
+        return version;
+    }
+
+    @Override
+    public synchronized long commit(Map<K, P> batch) {
+        long version = primary.commit(batch);
+        ship(version, Collections.unmodifiableMap(new LinkedHashMap<>(batch)));
+        return version;
+    }
+
+    // caller holds the lock
+    private void ship(long version, Map<K, P> writes) {
+        unshipped.add(new LogEntry<>(shipped + unshipped.size() + 1, version, writes));
+        while (!unshipped.isEmpty()) {
+            shipper.accept(unshipped.peek());
+            unshipped.poll();
+            shipped++;
+        }
+    }
+
+    @Override
+    public Map.Entry<K, P> get(K k, long t) {
+        return primary.get(k, t);
+    }
+
+    @Override
+    public boolean get(K k, long t, ReusableEntry<K, P> into) {
+        return primary.get(k, t, into);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, P>> rangeSnapshot(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp) {
+        return primary.rangeSnapshot(fromKey, fromInclusive, toKey, toInclusive, timestamp);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, P>> snapshot(long timestamp) {
+        return primary.snapshot(timestamp);
+    }
+
+    @Override
+    public void forEachVisible(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, BiConsumer<? super K, ? super P> visitor) {
+        primary.forEachVisible(fromKey, fromInclusive, toKey, toInclusive, timestamp, visitor);
+    }
+
+    @Override
+    public List<Map.Entry<K, P>> rangeSnapshotPage(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, int limit) {
+        return primary.rangeSnapshotPage(fromKey, fromInclusive, toKey, toInclusive, timestamp, limit);
+    }
+
+    @Override
+    public long count(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp) {
+        return primary.count(fromKey, fromInclusive, toKey, toInclusive, timestamp);
+    }
+
+    @Override
+    public long count(long timestamp) {
+        return primary.count(timestamp);
+    }
+
+    @Override
+    public <V> Optional<V> aggregate(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        return primary.aggregate(fromKey, fromInclusive, toKey, toInclusive, timestamp, extractor, combiner);
+    }
+
+    @Override
+    public <V> Optional<V> aggregate(long timestamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        return primary.aggregate(timestamp, extractor, combiner);
+    }
+}
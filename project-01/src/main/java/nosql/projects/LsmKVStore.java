@@ -0,0 +1,994 @@
+package nosql.projects;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import nosql.projects.Material.BatchKVStore;
+import nosql.projects.Material.FlushableKVStore;
+import nosql.projects.Material.OrderedKVStore;
+import nosql.projects.Material.TraversableKVStore;
+
+/**
+ * Embedded log-structured merge store. The backed version lists write every node once under a
+ * fresh key and never update it, which is the workload an LSM tree is built for.
+ *
+ * Writes go to a write-ahead log and a concurrent skiplist memtable. A full memtable becomes
+ * immutable and is written by a background thread as an {@link SSTable} into level 0. Level 0
+ * tables may overlap; once there are L0_COMPACTION_TRIGGER of them they are merged into level 1.
+ * Deeper levels hold non-overlapping tables, and a level that outgrows ten times the one above is
+ * compacted a table at a time into the next. The live tables are listed in a MANIFEST file that is
+ * replaced atomically, and the log of a memtable that was not yet written is replayed on open.
+ * Each put or putAll is logged as one length-prefixed, checksummed record, so replay applies a
+ * batch completely or not at all.
+ *
+ * Readers work on an immutable, reference-counted view of memtables and tables, so they never wait
+ * for a flush or compaction; replaced tables are deleted once the last view using them is released.
+ */
+public final class LsmKVStore implements FlushableKVStore, BatchKVStore, TraversableKVStore, OrderedKVStore, AutoCloseable {
+    public static final long DEFAULT_MEMTABLE_BYTES = 4L * 1024 * 1024;
+
+    private static final long TARGET_FILE_BYTES = 2L * 1024 * 1024;
+    private static final int L0_COMPACTION_TRIGGER = 4;
+    private static final long LEVEL1_MAX_BYTES = 10L * 1024 * 1024;
+    private static final int LEVELS = 7;
+    private static final String MANIFEST = "MANIFEST";
+    private static final String TABLE_SUFFIX = ".sst";
+    private static final String LOG_SUFFIX = ".log";
+    // first int of a log of framed batch records; older logs start directly with a key length
+    private static final int LOG_MAGIC = 0x4C534D42;
+    // index members live next to the data under keys no node key starts with
+    private static final String INDEX_PREFIX = "\u0000idx:";
+
+    private static final class Memtable {
+        final ConcurrentSkipListMap<String, String> entries = new ConcurrentSkipListMap<>();
+        final long logSeq;
+        // guarded by writeLock
+        long bytes;
+
+        Memtable(long logSeq) {
+            this.logSeq = logSeq;
+        }
+    }
+
+    /**
+     * Everything a read needs, never modified after construction. Level 0 is newest first, deeper
+     * levels are sorted by key.
+     */
+    private static final class View {
+        final Memtable memtable;
+        final Memtable immutable;
+        final List<List<SSTable>> levels;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        View(Memtable memtable, Memtable immutable, List<List<SSTable>> levels) {
+            this.memtable = memtable;
+            this.immutable = immutable;
+            this.levels = levels;
+            for (List<SSTable> level : levels) {
+                level.forEach(SSTable::retain);
+            }
+        }
+
+        boolean tryRetain() {
+            int r;
+            do {
+                r = refs.get();
+                if (r == 0)
+                    return false;
+            } while (!refs.compareAndSet(r, r + 1));
+            return true;
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                for (List<SSTable> level : levels) {
+                    level.forEach(SSTable::release);
+                }
+            }
+        }
+    }
+
+    private final Path directory;
+    private final long memtableBytes;
+    private final boolean syncWrites;
+    private final AtomicLong nextSeq = new AtomicLong(1);
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition immutableWritten = writeLock.newCondition();
+    // held by flushes and compactions, which are the only changes to the levels
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final ExecutorService background;
+    private final String[] compactPointers = new String[LEVELS];
+
+    private volatile View view;
+    private volatile RuntimeException backgroundError;
+    // guarded by writeLock
+    private DataOutputStream log;
+    private FileOutputStream logFile;
+    private volatile boolean closed;
+
+    public LsmKVStore(Path directory) {
+        this(directory, DEFAULT_MEMTABLE_BYTES, false);
+    }
+
+    /**
+     * @param memtableBytes approximate memtable size at which it is written to level 0
+     * @param syncWrites whether every write waits for the log to reach the disk; otherwise writes
+     *                   only reach the OS and may be lost if the machine (not the process) fails
+     */
+    public LsmKVStore(Path directory, long memtableBytes, boolean syncWrites) {
+        if (memtableBytes < 1)
+            throw new IllegalArgumentException("memtableBytes must be positive");
+        this.directory = Objects.requireNonNull(directory);
+        this.memtableBytes = memtableBytes;
+        this.syncWrites = syncWrites;
+        this.background = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "lsm-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            background.shutdownNow();
+            throw new RuntimeException("LSM open failed", e);
+        }
+    }
+
+    @Override
+    public void put(String storeKey, String storeValue) {
+        putAll(Map.of(storeKey, storeValue));
+    }
+
+    @Override
+    public void putAll(Map<String, String> entries) {
+        writeLock.lock();
+        try {
+            makeRoom();
+            byte[] record = encodeBatch(entries);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            log.writeInt(record.length);
+            log.writeInt((int) crc.getValue());
+            log.write(record);
+            log.flush();
+            if (syncWrites)
+                logFile.getFD().sync();
+            Memtable memtable = view.memtable;
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                memtable.entries.put(e.getKey(), e.getValue());
+                memtable.bytes += 2L * (e.getKey().length() + e.getValue().length()) + 64;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("LSM write failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("LSM write interrupted", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public String get(String storeKey) {
+        View v = acquire();
+        try {
+            return get(v, storeKey);
+        } catch (IOException e) {
+            throw new RuntimeException("LSM get failed", e);
+        } finally {
+            v.release();
+        }
+    }
+
+    @Override
+    public List<String> getAll(List<String> storeKeys) {
+        View v = acquire();
+        try {
+            List<String> values = new ArrayList<>(storeKeys.size());
+            for (String storeKey : storeKeys) {
+                values.add(get(v, storeKey));
+            }
+            return values;
+        } catch (IOException e) {
+            throw new RuntimeException("LSM get failed", e);
+        } finally {
+            v.release();
+        }
+    }
+
+    private static String get(View v, String key) throws IOException {
+        String value = v.memtable.entries.get(key);
+        if (value != null)
+            return value;
+        if (v.immutable != null && (value = v.immutable.entries.get(key)) != null)
+            return value;
+        for (SSTable table : v.levels.get(0)) {
+            if ((value = table.get(key)) != null)
+                return value;
+        }
+        for (int level = 1; level < LEVELS; level++) {
+            SSTable table = tableFor(v.levels.get(level), key);
+            if (table != null && (value = table.get(key)) != null)
+                return value;
+        }
+        return null;
+    }
+
+    // the table of a sorted, non-overlapping level whose range may contain key
+    private static SSTable tableFor(List<SSTable> level, String key) {
+        int lo = 0;
+        int hi = level.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (level.get(mid).largest.compareTo(key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return (lo < level.size() && level.get(lo).smallest.compareTo(key) <= 0) ? level.get(lo) : null;
+    }
+
+    /**
+     * Iterates the entries between from and to in key order, on the state of the store when the
+     * call was made. The iterator holds that state's tables open until it is exhausted or closed.
+     * @param from lower bound, or null for none
+     * @param to upper bound, or null for none
+     */
+    public Scan scan(String from, boolean fromInclusive, String to, boolean toInclusive) {
+        View v = acquire();
+        List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+        sources.add(slice(v.memtable.entries, from, fromInclusive).entrySet().iterator());
+        if (v.immutable != null)
+            sources.add(slice(v.immutable.entries, from, fromInclusive).entrySet().iterator());
+        for (SSTable table : v.levels.get(0)) {
+            sources.add(table.iterator(from, fromInclusive));
+        }
+        for (int level = 1; level < LEVELS; level++) {
+            sources.add(levelIterator(v.levels.get(level), from, fromInclusive));
+        }
+        return new Scan(v, new MergingIterator(sources), to, toInclusive);
+    }
+
+    /**
+     * Range iterator over one view; releases the view when it is exhausted or closed.
+     */
+    public static final class Scan implements Iterator<Map.Entry<String, String>>, AutoCloseable {
+        private final View view;
+        private final Iterator<Map.Entry<String, String>> merged;
+        private final String to;
+        private final boolean toInclusive;
+        private Map.Entry<String, String> next;
+        private boolean released;
+
+        private Scan(View view, Iterator<Map.Entry<String, String>> merged, String to, boolean toInclusive) {
+            this.view = view;
+            this.merged = merged;
+            this.to = to;
+            this.toInclusive = toInclusive;
+            advance();
+        }
+
+        private void advance() {
+            next = merged.hasNext() ? merged.next() : null;
+            if (next != null && to != null) {
+                int c = next.getKey().compareTo(to);
+                if (c > 0 || (c == 0 && !toInclusive))
+                    next = null;
+            }
+            if (next == null)
+                close();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Map.Entry<String, String> current = next;
+            advance();
+            return current;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                next = null;
+                view.release();
+            }
+        }
+    }
+
+    @Override
+    public boolean traversalSupported() {
+        return true;
+    }
+
+    @Override
+    public String findVisible(String headKey, String nodePrefix, long t) {
+        View v = acquire();
+        try {
+            return ChainWalk.findVisible(key -> getUnchecked(v, key), headKey, nodePrefix, t);
+        } finally {
+            v.release();
+        }
+    }
+
+    private static String getUnchecked(View v, String key) {
+        try {
+            return get(v, key);
+        } catch (IOException e) {
+            throw new RuntimeException("LSM get failed", e);
+        }
+    }
+
+    @Override
+    public void addToIndex(String index, String member) {
+        put(INDEX_PREFIX + index + '\u0000' + member, "");
+    }
+
+    @Override
+    public List<String> scanIndex(String index, String from, boolean fromInclusive, String to, boolean toInclusive, int limit) {
+        String prefix = INDEX_PREFIX + index + '\u0000';
+        String lower = (from == null) ? prefix : prefix + from;
+        String upper = (to == null) ? INDEX_PREFIX + index + '\u0001' : prefix + to;
+        List<String> members = new ArrayList<>();
+        try (Scan scan = scan(lower, from == null || fromInclusive, upper, to != null && toInclusive)) {
+            while (scan.hasNext() && (limit < 1 || members.size() < limit)) {
+                members.add(scan.next().getKey().substring(prefix.length()));
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Drops all data. Reads that are running keep their view until they finish.
+     */
+    @Override
+    public void flushDB() {
+        compactionLock.lock();
+        writeLock.lock();
+        try {
+            checkOpen();
+            closeLog();
+            long logSeq = nextSeq.getAndIncrement();
+            openLog(logSeq);
+            View old = replace(new View(new Memtable(logSeq), null, emptyLevels()));
+            try {
+                immutableWritten.signalAll();
+                writeManifest();
+                // the manifest no longer lists the old tables, so their files may go
+                for (List<SSTable> level : old.levels) {
+                    level.forEach(SSTable::markObsolete);
+                }
+            } finally {
+                old.release();
+            }
+            deleteLogsBefore(logSeq);
+        } catch (IOException e) {
+            throw new RuntimeException("LSM flush failed", e);
+        } finally {
+            writeLock.unlock();
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Waits for background work and closes all files. The memtable stays in the log and is
+     * replayed when the directory is opened again.
+     */
+    @Override
+    public void close() {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeLock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            closeLog();
+            view.release();
+        } catch (IOException e) {
+            throw new RuntimeException("LSM close failed", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of tables per level, level 0 first
+     */
+    public int[] tablesPerLevel() {
+        List<List<SSTable>> levels = view.levels;
+        int[] counts = new int[LEVELS];
+        for (int level = 0; level < LEVELS; level++) {
+            counts[level] = levels.get(level).size();
+        }
+        return counts;
+    }
+
+    private View acquire() {
+        while (true) {
+            View v = view;
+            if (v.tryRetain())
+                return v;
+            if (closed)
+                throw new IllegalStateException("Store is closed");
+        }
+    }
+
+    // caller holds writeLock
+    private void install(View next) {
+        View old = replace(next);
+        if (old != null)
+            old.release();
+    }
+
+    // caller holds writeLock; the caller releases the returned view
+    private View replace(View next) {
+        View old = view;
+        view = next;
+        return old;
+    }
+
+    // caller holds writeLock
+    private void makeRoom() throws IOException, InterruptedException {
+        checkOpen();
+        // one immutable memtable at a time: writers slow down to the speed of the flushes
+        while (view.memtable.bytes >= memtableBytes && view.immutable != null) {
+            immutableWritten.await();
+            checkOpen();
+        }
+        if (view.memtable.bytes < memtableBytes)
+            return;
+        View v = view;
+        closeLog();
+        long logSeq = nextSeq.getAndIncrement();
+        openLog(logSeq);
+        install(new View(new Memtable(logSeq), v.memtable, v.levels));
+        background.execute(this::backgroundWork);
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Store is closed");
+        checkBackground();
+    }
+
+    private void checkBackground() {
+        if (backgroundError != null)
+            throw backgroundError;
+    }
+
+    private void backgroundWork() {
+        compactionLock.lock();
+        try {
+            // a waiting memtable goes first between compaction steps, so writers are not stalled
+            // behind a long compaction
+            do {
+                Memtable immutable = view.immutable;
+                if (immutable != null)
+                    writeImmutable(immutable);
+            } while (compactOnce());
+        } catch (IOException | RuntimeException e) {
+            writeLock.lock();
+            try {
+                backgroundError = new RuntimeException("LSM background work failed", e);
+                immutableWritten.signalAll();
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    // caller holds compactionLock
+    private void writeImmutable(Memtable immutable) throws IOException {
+        SSTable table = immutable.entries.isEmpty() ? null : writeTable(immutable.entries.entrySet().iterator());
+        writeLock.lock();
+        try {
+            View v = view;
+            List<List<SSTable>> levels = new ArrayList<>(v.levels);
+            if (table != null) {
+                List<SSTable> level0 = new ArrayList<>(levels.get(0).size() + 1);
+                level0.add(table);
+                level0.addAll(levels.get(0));
+                levels.set(0, List.copyOf(level0));
+            }
+            install(new View(v.memtable, null, List.copyOf(levels)));
+            immutableWritten.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+        writeManifest();
+        Files.deleteIfExists(logPath(immutable.logSeq));
+    }
+
+    private SSTable writeTable(Iterator<Map.Entry<String, String>> entries) throws IOException {
+        long seq = nextSeq.getAndIncrement();
+        Path path = tablePath(seq);
+        try (SSTable.Writer writer = new SSTable.Writer(path)) {
+            while (entries.hasNext()) {
+                Map.Entry<String, String> e = entries.next();
+                writer.add(e.getKey(), e.getValue());
+            }
+            writer.finish();
+        }
+        return SSTable.open(path, seq);
+    }
+
+    // caller holds compactionLock
+    private boolean compactOnce() throws IOException {
+        List<List<SSTable>> levels = view.levels;
+        int level = -1;
+        if (levels.get(0).size() >= L0_COMPACTION_TRIGGER) {
+            level = 0;
+        } else {
+            for (int i = 1; i < LEVELS - 1 && level < 0; i++) {
+                if (levelBytes(levels.get(i)) > maxBytes(i))
+                    level = i;
+            }
+        }
+        if (level < 0)
+            return false;
+
+        List<SSTable> inputs = (level == 0) ? levels.get(0) : List.of(pick(levels.get(level), level));
+        String lo = inputs.get(0).smallest;
+        String hi = inputs.get(0).largest;
+        for (SSTable table : inputs) {
+            lo = (table.smallest.compareTo(lo) < 0) ? table.smallest : lo;
+            hi = (table.largest.compareTo(hi) > 0) ? table.largest : hi;
+        }
+        List<SSTable> overlapping = new ArrayList<>();
+        for (SSTable table : levels.get(level + 1)) {
+            if (table.overlaps(lo, hi))
+                overlapping.add(table);
+        }
+        if (level > 0)
+            compactPointers[level] = hi;
+
+        List<SSTable> outputs;
+        if (level > 0 && overlapping.isEmpty()) {
+            // nothing to merge with: the table moves down as it is
+            outputs = inputs;
+        } else {
+            // inputs first: they are newer than the level below, and level 0 is newest first
+            List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+            for (SSTable table : inputs) {
+                sources.add(table.iterator(null, true));
+            }
+            sources.add(levelIterator(overlapping, null, true));
+            outputs = writeTables(new MergingIterator(sources));
+        }
+
+        View old;
+        writeLock.lock();
+        try {
+            View v = view;
+            List<List<SSTable>> next = new ArrayList<>(v.levels);
+            List<SSTable> upper = new ArrayList<>(next.get(level));
+            upper.removeAll(inputs);
+            List<SSTable> lower = new ArrayList<>(next.get(level + 1));
+            lower.removeAll(overlapping);
+            lower.addAll(outputs);
+            lower.sort(Comparator.comparing(table -> table.smallest));
+            next.set(level, List.copyOf(upper));
+            next.set(level + 1, List.copyOf(lower));
+            old = replace(new View(v.memtable, v.immutable, List.copyOf(next)));
+        } finally {
+            writeLock.unlock();
+        }
+        // the old view keeps the inputs until the manifest no longer lists them
+        try {
+            writeManifest();
+            if (outputs != inputs) {
+                inputs.forEach(SSTable::markObsolete);
+                overlapping.forEach(SSTable::markObsolete);
+            }
+        } finally {
+            old.release();
+        }
+        return true;
+    }
+
+    // round robin over the key space, so every table of the level is compacted in turn
+    private SSTable pick(List<SSTable> level, int levelNumber) {
+        String pointer = compactPointers[levelNumber];
+        if (pointer != null) {
+            for (SSTable table : level) {
+                if (table.smallest.compareTo(pointer) > 0)
+                    return table;
+            }
+        }
+        return level.get(0);
+    }
+
+    // splits the merged input into tables of about TARGET_FILE_BYTES
+    private List<SSTable> writeTables(Iterator<Map.Entry<String, String>> merged) throws IOException {
+        List<SSTable> outputs = new ArrayList<>();
+        while (merged.hasNext()) {
+            long seq = nextSeq.getAndIncrement();
+            Path path = tablePath(seq);
+            try (SSTable.Writer writer = new SSTable.Writer(path)) {
+                while (merged.hasNext() && writer.bytesWritten() < TARGET_FILE_BYTES) {
+                    Map.Entry<String, String> e = merged.next();
+                    writer.add(e.getKey(), e.getValue());
+                }
+                writer.finish();
+            }
+            outputs.add(SSTable.open(path, seq));
+        }
+        return outputs;
+    }
+
+    private static long levelBytes(List<SSTable> level) {
+        long bytes = 0;
+        for (SSTable table : level) {
+            bytes += table.fileBytes;
+        }
+        return bytes;
+    }
+
+    private static long maxBytes(int level) {
+        long bytes = LEVEL1_MAX_BYTES;
+        for (int i = 1; i < level; i++) {
+            bytes *= 10;
+        }
+        return bytes;
+    }
+
+    private static List<List<SSTable>> emptyLevels() {
+        List<List<SSTable>> levels = new ArrayList<>(LEVELS);
+        for (int i = 0; i < LEVELS; i++) {
+            levels.add(List.of());
+        }
+        return List.copyOf(levels);
+    }
+
+    private static NavigableMap<String, String> slice(NavigableMap<String, String> map, String from, boolean fromInclusive) {
+        return (from == null) ? map : map.tailMap(from, fromInclusive);
+    }
+
+    // concatenates the tables of a sorted level, opening each only when the previous one is done
+    private static Iterator<Map.Entry<String, String>> levelIterator(List<SSTable> level, String from, boolean fromInclusive) {
+        return new Iterator<>() {
+            private int index = (from == null) ? 0 : firstCandidate(level, from);
+            private Iterator<Map.Entry<String, String>> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && index < level.size()) {
+                    current = level.get(index++).iterator(from, fromInclusive);
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    private static int firstCandidate(List<SSTable> level, String from) {
+        int i = 0;
+        while (i < level.size() && level.get(i).largest.compareTo(from) < 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Merges sorted sources; for a key present in several, the entry of the earliest source wins.
+     */
+    private static final class MergingIterator implements Iterator<Map.Entry<String, String>> {
+        private record Head(Map.Entry<String, String> entry, int rank, Iterator<Map.Entry<String, String>> source) {}
+
+        private final PriorityQueue<Head> heads = new PriorityQueue<>(
+                Comparator.comparing((Head h) -> h.entry.getKey()).thenComparingInt(Head::rank));
+
+        MergingIterator(List<Iterator<Map.Entry<String, String>>> sources) {
+            for (int rank = 0; rank < sources.size(); rank++) {
+                offer(sources.get(rank), rank);
+            }
+        }
+
+        private void offer(Iterator<Map.Entry<String, String>> source, int rank) {
+            if (source.hasNext())
+                heads.add(new Head(source.next(), rank, source));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            Head top = heads.poll();
+            if (top == null)
+                throw new NoSuchElementException();
+            offer(top.source, top.rank);
+            String key = top.entry.getKey();
+            while (!heads.isEmpty() && heads.peek().entry.getKey().equals(key)) {
+                Head shadowed = heads.poll();
+                offer(shadowed.source, shadowed.rank);
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(key, top.entry.getValue());
+        }
+    }
+
+    // ---- files ----
+
+    private Path tablePath(long seq) {
+        return directory.resolve(seq + TABLE_SUFFIX);
+    }
+
+    private Path logPath(long seq) {
+        return directory.resolve(seq + LOG_SUFFIX);
+    }
+
+    // caller holds writeLock
+    private void openLog(long seq) throws IOException {
+        boolean fresh = !Files.exists(logPath(seq)) || Files.size(logPath(seq)) == 0;
+        logFile = new FileOutputStream(logPath(seq).toFile(), true);
+        log = new DataOutputStream(new BufferedOutputStream(logFile, 64 * 1024));
+        if (fresh)
+            log.writeInt(LOG_MAGIC);
+    }
+
+    // caller holds writeLock
+    private void closeLog() throws IOException {
+        if (log != null) {
+            log.flush();
+            logFile.getFD().sync();
+            log.close();
+            log = null;
+        }
+    }
+
+    /**
+     * Lists the live tables and the oldest log still needed. Written to a temporary file that is
+     * moved over the old manifest, so a crash leaves either the old or the new list.
+     */
+    private void writeManifest() throws IOException {
+        View v = view;
+        long logSeq = (v.immutable != null) ? v.immutable.logSeq : v.memtable.logSeq;
+        StringBuilder manifest = new StringBuilder();
+        manifest.append("next ").append(nextSeq.get()).append('\n');
+        manifest.append("log ").append(logSeq).append('\n');
+        for (int level = 0; level < LEVELS; level++) {
+            for (SSTable table : v.levels.get(level)) {
+                manifest.append("table ").append(level).append(' ').append(table.seq).append('\n');
+            }
+        }
+        Path tmp = directory.resolve(MANIFEST + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+            out.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(tmp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Opens the tables of the manifest, deletes files it does not list, and writes the logs it
+     * still needs into a level 0 table before starting a fresh log. Fails if a listed table is
+     * missing.
+     */
+    private void recover() throws IOException {
+        List<List<SSTable>> levels = new ArrayList<>();
+        for (int i = 0; i < LEVELS; i++) {
+            levels.add(new ArrayList<>());
+        }
+        Map<Long, Integer> live = new HashMap<>();
+        long firstLog = 0;
+        Path manifest = directory.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                String[] parts = line.split(" ");
+                switch (parts[0]) {
+                    case "next" -> nextSeq.set(Long.parseLong(parts[1]));
+                    case "log" -> firstLog = Long.parseLong(parts[1]);
+                    case "table" -> live.put(Long.parseLong(parts[2]), Integer.parseInt(parts[1]));
+                    default -> throw new IOException("Bad manifest line: " + line);
+                }
+            }
+        }
+
+        Map<Long, Path> tables = new HashMap<>();
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TABLE_SUFFIX)) {
+                    long seq = Long.parseLong(name.substring(0, name.length() - TABLE_SUFFIX.length()));
+                    if (live.containsKey(seq))
+                        tables.put(seq, file);
+                    else
+                        Files.delete(file);
+                } else if (name.endsWith(LOG_SUFFIX)) {
+                    long seq = Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length()));
+                    if (seq < firstLog)
+                        Files.delete(file);
+                    else
+                        logs.put(seq, file);
+                }
+            }
+        }
+        for (long seq : live.keySet()) {
+            if (!tables.containsKey(seq))
+                throw new IOException("Manifest lists missing table " + seq);
+        }
+        for (Map.Entry<Long, Integer> table : live.entrySet()) {
+            levels.get(table.getValue()).add(SSTable.open(tables.get(table.getKey()), table.getKey()));
+        }
+        levels.get(0).sort(Comparator.comparingLong((SSTable table) -> table.seq).reversed());
+        for (int level = 1; level < LEVELS; level++) {
+            levels.get(level).sort(Comparator.comparing(table -> table.smallest));
+        }
+        if (!logs.isEmpty())
+            nextSeq.set(Math.max(nextSeq.get(), logs.lastKey() + 1));
+
+        ConcurrentSkipListMap<String, String> replayed = new ConcurrentSkipListMap<>();
+        for (Path file : logs.values()) {
+            replay(file, replayed);
+        }
+        if (!replayed.isEmpty())
+            levels.get(0).add(0, writeTable(replayed.entrySet().iterator()));
+
+        List<List<SSTable>> frozen = new ArrayList<>(LEVELS);
+        for (List<SSTable> level : levels) {
+            frozen.add(List.copyOf(level));
+        }
+        writeLock.lock();
+        try {
+            long logSeq = nextSeq.getAndIncrement();
+            openLog(logSeq);
+            install(new View(new Memtable(logSeq), null, List.copyOf(frozen)));
+            writeManifest();
+            deleteLogsBefore(logSeq);
+        } finally {
+            writeLock.unlock();
+        }
+        if (levels.get(0).size() >= L0_COMPACTION_TRIGGER)
+            background.execute(this::backgroundWork);
+    }
+
+    private void deleteLogsBefore(long seq) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length())) < seq)
+                    Files.delete(file);
+            }
+        }
+    }
+
+    private static byte[] encodeBatch(Map<String, String> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // A torn or corrupt record is a write that never completed; it and anything after it are ignored.
+    private static void replay(Path file, Map<String, String> into) throws IOException {
+        long fileBytes = Files.size(file);
+        try (InputStream in = Files.newInputStream(file);
+                DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            data.mark(Integer.BYTES);
+            try {
+                if (data.readInt() != LOG_MAGIC) {
+                    data.reset();
+                    replayUnframed(data, into);
+                    return;
+                }
+            } catch (EOFException e) {
+                return;
+            }
+            while (true) {
+                byte[] record;
+                int checksum;
+                try {
+                    int length = data.readInt();
+                    checksum = data.readInt();
+                    if (length < 0 || length > fileBytes)
+                        return;
+                    record = new byte[length];
+                    data.readFully(record);
+                } catch (EOFException e) {
+                    return;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum)
+                    return;
+                DataInputStream batch = new DataInputStream(new ByteArrayInputStream(record));
+                int n = batch.readInt();
+                for (int i = 0; i < n; i++) {
+                    String key = readString(batch);
+                    into.put(key, readString(batch));
+                }
+            }
+        }
+    }
+
+    // logs written before batches were framed: bare key/value pairs
+    private static void replayUnframed(DataInputStream data, Map<String, String> into) throws IOException {
+        while (true) {
+            String key;
+            String value;
+            try {
+                key = readString(data);
+                value = readString(data);
+            } catch (EOFException e) {
+                return;
+            }
+            into.put(key, value);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
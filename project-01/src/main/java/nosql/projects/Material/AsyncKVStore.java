@@ -0,0 +1,20 @@
+package nosql.projects.Material;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface AsyncKVStore {
+    /**
+     * Stores storeValue under storeKey.
+     * @param storeKey
+     * @param storeValue
+     * @return a future that completes once the store acknowledged the write
+     */
+    CompletableFuture<Void> putAsync(String storeKey, String storeValue);
+
+    /**
+     * Reads the value stored under storeKey.
+     * @param storeKey
+     * @return a future completing with the value, or with null if the key is absent
+     */
+    CompletableFuture<String> getAsync(String storeKey);
+}
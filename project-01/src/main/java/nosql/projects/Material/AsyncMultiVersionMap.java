@@ -0,0 +1,44 @@
+package nosql.projects.Material;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+public interface AsyncMultiVersionMap<K extends Comparable<? super K>, P> {
+    /**
+     * Asynchronous variant of {@link MultiVersionMap#get(Comparable, long)}.
+     * @param k key
+     * @param t timestamp
+     * @return a future completing with the visible entry, or with null if nothing is visible at t
+     */
+    CompletableFuture<Map.Entry<K, P>> getAsync(K k, long t);
+
+    /**
+     * Asynchronous variant of {@link MultiVersionMap#append(Comparable, Object)}.
+     * Appends to the same key complete in the order of their assigned versions.
+     * @param k key
+     * @param p payload
+     * @return a future completing with the assigned version once the data is durable in the store
+     */
+    CompletableFuture<Long> appendAsync(K k, P p);
+
+    /**
+     * Asynchronous variant of {@link MultiVersionMap#commit(Map)}.
+     * @param batch key -> new payload
+     * @return a future completing with the version assigned to every entry of batch once all of
+     *         them are durable in the store
+     */
+    CompletableFuture<Long> commitAsync(Map<K, P> batch);
+
+    /**
+     * Asynchronous Range-Snapshot. Lookups for the keys of the range are issued concurrently,
+     * the entries are published in key-order and honour the subscriber's demand.
+     * @param fromKey
+     * @param fromInclusive
+     * @param toKey
+     * @param toInclusive
+     * @param timestamp
+     * @return a cold publisher; every subscription evaluates the snapshot anew
+     */
+    Flow.Publisher<Map.Entry<K, P>> rangeSnapshotAsync(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp);
+}
@@ -0,0 +1,19 @@
+package nosql.projects.Material;
+
+import java.util.List;
+import java.util.Map;
+
+public interface BatchKVStore extends KVStore {
+    /**
+     * Writes all entries with a single round trip to the store.
+     * @param entries storeKey -> storeValue
+     */
+    void putAll(Map<String, String> entries);
+
+    /**
+     * Reads all keys with a single round trip to the store.
+     * @param storeKeys
+     * @return the values in the order of storeKeys, null for absent keys
+     */
+    List<String> getAll(List<String> storeKeys);
+}
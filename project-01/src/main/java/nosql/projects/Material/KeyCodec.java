@@ -0,0 +1,76 @@
+package nosql.projects.Material;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+/**
+ * Turns keys into bytes whose unsigned lexicographic order is the keys' order, so that an ordered
+ * store can answer key range queries itself. {@link #encodeToString(Object)} gives the bytes as
+ * lower-case hex, which keeps that order for stores with string keys.
+ */
+public interface KeyCodec<K> {
+    byte[] encode(K key);
+
+    K decode(byte[] bytes);
+
+    default String encodeToString(K key) {
+        return HexFormat.of().formatHex(encode(key));
+    }
+
+    default K decodeFromString(String encoded) {
+        return decode(HexFormat.of().parseHex(encoded));
+    }
+
+    /**
+     * UTF-8 bytes. Their order equals String.compareTo except between characters U+E000..U+FFFF
+     * and supplementary characters, which UTF-16 orders the other way round.
+     */
+    static KeyCodec<String> strings() {
+        return new KeyCodec<>() {
+            @Override
+            public byte[] encode(String key) {
+                return key.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String decode(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /**
+     * 8 bytes big-endian with the sign bit flipped, so negative values sort first.
+     */
+    static KeyCodec<Long> longs() {
+        return new KeyCodec<>() {
+            @Override
+            public byte[] encode(Long key) {
+                return ByteBuffer.allocate(Long.BYTES).putLong(key ^ Long.MIN_VALUE).array();
+            }
+
+            @Override
+            public Long decode(byte[] bytes) {
+                return ByteBuffer.wrap(bytes).getLong() ^ Long.MIN_VALUE;
+            }
+        };
+    }
+
+    /**
+     * 4 bytes big-endian with the sign bit flipped, so negative values sort first.
+     */
+    static KeyCodec<Integer> ints() {
+        return new KeyCodec<>() {
+            @Override
+            public byte[] encode(Integer key) {
+                return ByteBuffer.allocate(Integer.BYTES).putInt(key ^ Integer.MIN_VALUE).array();
+            }
+
+            @Override
+            public Integer decode(byte[] bytes) {
+                return ByteBuffer.wrap(bytes).getInt() ^ Integer.MIN_VALUE;
+            }
+        };
+    }
+}
@@ -0,0 +1,11 @@
+package nosql.projects.Material;
+
+import java.util.Map;
+
+/**
+ * One shipped write of a MultiVersionMap: an append, or a whole batch commit.
+ * @param sequence position in the shipped log: the first entry is 1, each next one is one more
+ * @param version the version the primary assigned
+ * @param writes the payloads written at that version, by key
+ */
+public record LogEntry<K, P>(long sequence, long version, Map<K, P> writes) {}
@@ -1,8 +1,14 @@
 package nosql.projects.Material;
 
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
 
 public interface MultiVersionMap<K extends Comparable<? super K>, P> {
     /**
@@ -21,6 +27,16 @@ public interface MultiVersionMap<K extends Comparable<? super K>, P> {
      */
     long append(K k, P p);
 
+    /**
+     * Appends every entry of batch under one shared version, so a snapshot sees either the whole
+     * batch or none of it. Maps that can batch store writes send all of them together.
+     * @param batch key -> new payload
+     * @return the version assigned to every entry of batch
+     */
+    default long commit(Map<K, P> batch) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support batch commits");
+    }
+
     /**
      * A Range-Snapshot.
      * @param fromKey
@@ -39,4 +55,112 @@ public interface MultiVersionMap<K extends Comparable<? super K>, P> {
      * @return
      */
     Iterator<Map.Entry<K, P>> snapshot(long timestamp);
+
+    /**
+     * Allocation-free variant of {@link #get(Comparable, long)}: the visible version is written into 'into'.
+     * @param k key
+     * @param t timestamp
+     * @param into entry that receives key and payload
+     * @return true if a version is visible at t; 'into' is left untouched otherwise
+     */
+    default boolean get(K k, long t, ReusableEntry<K, P> into) {
+        Map.Entry<K, P> visible = get(k, t);
+        if (visible == null)
+            return false;
+        into.set(visible.getKey(), visible.getValue());
+        return true;
+    }
+
+    /**
+     * Range-Snapshot that hands every visible record to visitor in key-order instead of
+     * building entries and an iterator.
+     * @param fromKey
+     * @param fromInclusive
+     * @param toKey
+     * @param toInclusive
+     * @param timestamp
+     * @param visitor
+     */
+    default void forEachVisible(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, BiConsumer<? super K, ? super P> visitor) {
+        Iterator<Map.Entry<K, P>> it = rangeSnapshot(fromKey, fromInclusive, toKey, toInclusive, timestamp);
+        while (it.hasNext()) {
+            Map.Entry<K, P> e = it.next();
+            visitor.accept(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * The first limit records of a Range-Snapshot. Implementations that know their keys only
+     * resolve those records instead of the whole range.
+     * @return at most limit visible records, in key-order
+     */
+    default List<Map.Entry<K, P>> rangeSnapshotPage(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, int limit) {
+        List<Map.Entry<K, P>> page = new ArrayList<>(Math.min(limit, 1024));
+        Iterator<Map.Entry<K, P>> it = rangeSnapshot(fromKey, fromInclusive, toKey, toInclusive, timestamp);
+        while (page.size() < limit && it.hasNext()) {
+            page.add(it.next());
+        }
+        return page;
+    }
+
+    /**
+     * Number of keys between fromKey and toKey that have a version visible at timestamp.
+     * Implementations that know their keys' first versions count without reading any payload.
+     */
+    default long count(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp) {
+        return count(rangeSnapshot(fromKey, fromInclusive, toKey, toInclusive, timestamp));
+    }
+
+    /**
+     * Number of keys that have a version visible at timestamp.
+     */
+    default long count(long timestamp) {
+        return count(snapshot(timestamp));
+    }
+
+    private static long count(Iterator<?> it) {
+        long n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Folds extractor(payload) of every record visible at timestamp between fromKey and toKey with
+     * combiner, e.g. Long::sum or Integer::max. Records whose extracted value is null are skipped.
+     * combiner must be associative: implementations may fold key ranges in parallel and combine
+     * the partial results in key-order.
+     * @return the folded value, or empty if no record contributed one
+     */
+    default <V> Optional<V> aggregate(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        return fold(rangeSnapshot(fromKey, fromInclusive, toKey, toInclusive, timestamp), extractor, combiner);
+    }
+
+    /**
+     * Like {@link #aggregate(Comparable, boolean, Comparable, boolean, long, Function, BinaryOperator)},
+     * but extractor reads each visible payload in the form its Serializer wrote, so maps that store
+     * payloads serialized need not decode them, e.g. to sum a single field.
+     */
+    default <V> Optional<V> aggregateSerialized(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, Function<String, ? extends V> extractor, BinaryOperator<V> combiner) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not aggregate serialized payloads");
+    }
+
+    /**
+     * {@link #aggregate(Comparable, boolean, Comparable, boolean, long, Function, BinaryOperator)} over all keys.
+     */
+    default <V> Optional<V> aggregate(long timestamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        return fold(snapshot(timestamp), extractor, combiner);
+    }
+
+    private static <K, P, V> Optional<V> fold(Iterator<Map.Entry<K, P>> it, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        V result = null;
+        while (it.hasNext()) {
+            V value = extractor.apply(it.next().getValue());
+            if (value != null)
+                result = (result == null) ? value : combiner.apply(result, value);
+        }
+        return Optional.ofNullable(result);
+    }
 }
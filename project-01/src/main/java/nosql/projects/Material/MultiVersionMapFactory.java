@@ -0,0 +1,7 @@
+package nosql.projects.Material;
+
+import nosql.projects.VersionClock;
+
+public interface MultiVersionMapFactory<K extends Comparable<? super K>, P> {
+    MultiVersionMap<K, P> create(KVStore store, VersionClock clock);
+}
@@ -0,0 +1,43 @@
+package nosql.projects.Material;
+
+/**
+ * Measurement hooks of the MultiVersionMaps and version lists. Every hook defaults to a no-op,
+ * and callers only take timestamps when {@link #enabled()} is true, so {@link #DISABLED} costs
+ * next to nothing.
+ */
+public interface MvmMetrics {
+    enum Op { GET, APPEND, RANGE_SNAPSHOT }
+
+    MvmMetrics DISABLED = new MvmMetrics() {};
+
+    default boolean enabled() {
+        return false;
+    }
+
+    /**
+     * Wall-clock time of one MultiVersionMap call.
+     * @param op
+     * @param nanos
+     */
+    default void latency(Op op, long nanos) {}
+
+    /**
+     * Number of version nodes visited by one findVisible.
+     * @param hops
+     */
+    default void hops(int hops) {}
+
+    default void storeGets(int count) {}
+
+    default void storePuts(int count) {}
+
+    /**
+     * Time spent turning payloads and node records into strings and back.
+     * @param nanos
+     */
+    default void serialization(long nanos) {}
+
+    default void cacheHit(String cache) {}
+
+    default void cacheMiss(String cache) {}
+}
@@ -0,0 +1,22 @@
+package nosql.projects.Material;
+
+import java.util.List;
+
+/**
+ * Store that keeps named, ordered sets of strings next to its key/value data, e.g. a Redis sorted
+ * set queried by lexicographic range. Lets a map find its keys in a range without holding them.
+ */
+public interface OrderedKVStore extends KVStore {
+    /**
+     * Adds member to the ordered set index; adding a member twice has no effect.
+     */
+    void addToIndex(String index, String member);
+
+    /**
+     * @param from lower bound, or null for none
+     * @param to upper bound, or null for none
+     * @param limit maximum number of members to return, or a value below 1 for all
+     * @return the members of index between from and to, in ascending (byte-wise) order
+     */
+    List<String> scanIndex(String index, String from, boolean fromInclusive, String to, boolean toInclusive, int limit);
+}
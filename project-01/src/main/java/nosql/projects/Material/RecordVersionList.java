@@ -0,0 +1,19 @@
+package nosql.projects.Material;
+
+public interface RecordVersionList<P> extends VersionList<P> {
+    /**
+     * Like {@link #findVisible(long)}, but returns the stored record without deserializing its payload.
+     * @param timestamp
+     * @return the newest record with a version smaller or equal to 'timestamp', or null
+     */
+    VersionedRecord findVisibleRecord(long timestamp);
+
+    /**
+     * @param version a version appended to this list
+     * @return the record of exactly that version, or null if there is none
+     */
+    default VersionedRecord readVersion(long version) {
+        VersionedRecord visible = findVisibleRecord(version);
+        return (visible != null && visible.version() == version) ? visible : null;
+    }
+}
@@ -0,0 +1,50 @@
+package nosql.projects.Material;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Mutable Map.Entry a caller can hand to {@link MultiVersionMap#get(Comparable, long, ReusableEntry)}
+ * again and again, so that a point read allocates no entry object.
+ */
+public final class ReusableEntry<K, P> implements Map.Entry<K, P> {
+    private K key;
+    private P value;
+
+    public void set(K key, P value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public P getValue() {
+        return value;
+    }
+
+    @Override
+    public P setValue(P value) {
+        P previous = this.value;
+        this.value = value;
+        return previous;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Map.Entry<?, ?> e && Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(key) ^ Objects.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + value;
+    }
+}
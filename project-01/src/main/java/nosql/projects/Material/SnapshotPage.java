@@ -0,0 +1,15 @@
+package nosql.projects.Material;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of a paginated Range-Snapshot.
+ * @param entries the visible records of this page, in key-order
+ * @param continuationToken opaque token for the next page, or null if this is the last page
+ */
+public record SnapshotPage<K, P>(List<Map.Entry<K, P>> entries, String continuationToken) {
+    public boolean hasMore() {
+        return continuationToken != null;
+    }
+}
@@ -0,0 +1,40 @@
+package nosql.projects.Material;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Store that can walk a version chain itself, so finding the visible version costs one round trip
+ * instead of one per hop. Nodes are JSON objects with a numeric "ts" and optional "nextKey" and
+ * "ridgyKey" fields; the store key of a referenced node is nodePrefix + that field. From each node
+ * newer than t the walk jumps to ridgyKey if that node is still newer than t, else to nextKey.
+ */
+public interface TraversableKVStore extends KVStore {
+    /**
+     * @param headKey store key of the newest node, or null for an empty chain
+     * @param nodePrefix prefix that turns the nodes' pointer fields into store keys
+     * @param t timestamp
+     * @return the stored value of the newest node with ts <= t, or null
+     */
+    String findVisible(String headKey, String nodePrefix, long t);
+
+    /**
+     * Several walks in one round trip, e.g. one per key of a range snapshot.
+     * @return one result per head, in the order of headKeys
+     */
+    default List<String> findVisibleAll(List<String> headKeys, List<String> nodePrefixes, long t) {
+        List<String> found = new ArrayList<>(headKeys.size());
+        for (int i = 0; i < headKeys.size(); i++) {
+            found.add(findVisible(headKeys.get(i), nodePrefixes.get(i), t));
+        }
+        return found;
+    }
+
+    /**
+     * Callers fall back to walking the chain themselves unless the store says it can do the walk.
+     * @return true if findVisible runs in the store; stores that can traverse override this
+     */
+    default boolean traversalSupported() {
+        return false;
+    }
+}
@@ -2,4 +2,12 @@ package nosql.projects.Material;
 
 public interface VersionListFactory<P> {
     VersionList<P> create(KVStore store, Serializer<P> serializer);
+
+    /**
+     * Creates a list that reports to metrics. Factories of lists without metrics support
+     * fall back to {@link #create(KVStore, Serializer)}.
+     */
+    default VersionList<P> create(KVStore store, Serializer<P> serializer, MvmMetrics metrics) {
+        return create(store, serializer);
+    }
 }
@@ -0,0 +1,6 @@
+package nosql.projects.Material;
+
+/**
+ * A version as it is kept in the store: its timestamp and the serialized payload.
+ */
+public record VersionedRecord(long version, String payload) {}
@@ -0,0 +1,25 @@
+package nosql.projects;
+
+public interface MvmMetricsMXBean {
+    long getGetCount();
+    double getGetMeanMicros();
+    double getGetP99Micros();
+
+    long getAppendCount();
+    double getAppendMeanMicros();
+    double getAppendP99Micros();
+
+    long getRangeSnapshotCount();
+    double getRangeSnapshotMeanMicros();
+    double getRangeSnapshotP99Micros();
+
+    double getHopsMean();
+    long getHopsP99();
+
+    double getStoreGetsPerCall();
+    double getStorePutsPerCall();
+    double getSerializationMillis();
+    double getCacheHitRate();
+
+    void reset();
+}
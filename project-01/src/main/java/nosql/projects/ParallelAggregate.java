@@ -0,0 +1,67 @@
+package nosql.projects;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Folds the payloads of a sorted key list for the maps' aggregate operators. The keys are cut into
+ * up to parallelism contiguous runs; each run is resolved and folded on its own virtual thread,
+ * and the partial results are combined in key order, so only associativity is asked of combiner.
+ */
+final class ParallelAggregate {
+    // below this many keys per run, a thread costs more than it saves
+    private static final int MIN_KEYS_PER_RUN = 64;
+
+    private ParallelAggregate() {}
+
+    /**
+     * @param resolve payloads visible in a run of keys (keys without one may be left out)
+     */
+    static <K, P, V> Optional<V> run(List<K> keys, int parallelism, Function<List<K>, Iterator<P>> resolve, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        int runs = Math.max(1, Math.min(parallelism, keys.size() / MIN_KEYS_PER_RUN));
+        if (runs == 1)
+            return Optional.ofNullable(fold(resolve.apply(keys), extractor, combiner));
+
+        List<Future<V>> partials = new ArrayList<>(runs);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < runs; i++) {
+                List<K> run = keys.subList((int) ((long) keys.size() * i / runs), (int) ((long) keys.size() * (i + 1) / runs));
+                partials.add(executor.submit(() -> fold(resolve.apply(run), extractor, combiner)));
+            }
+            V result = null;
+            for (Future<V> partial : partials) {
+                result = combine(result, partial.get(), combiner);
+            }
+            return Optional.ofNullable(result);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Aggregate interrupted", exception);
+        } catch (ExecutionException exception) {
+            throw new RuntimeException("Aggregate failed", exception.getCause());
+        }
+    }
+
+    private static <P, V> V fold(Iterator<P> payloads, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        V result = null;
+        while (payloads.hasNext()) {
+            P p = payloads.next();
+            if (p != null)
+                result = combine(result, extractor.apply(p), combiner);
+        }
+        return result;
+    }
+
+    private static <V> V combine(V result, V value, BinaryOperator<V> combiner) {
+        if (value == null)
+            return result;
+        return (result == null) ? value : combiner.apply(result, value);
+    }
+}
@@ -0,0 +1,114 @@
+package nosql.projects;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of deserialized payloads, keyed by (key, version). A version is immutable once
+ * written, so entries never go stale. Entries are weighed by the length of their serialized form;
+ * each segment evicts its least recently used entries once it exceeds its share of maxWeight.
+ * Cached payloads are handed out to every reader and must not be mutated.
+ */
+public final class PayloadCache<K, P> {
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private record CacheKey<K>(K key, long version) {}
+
+    private record Weighted<P>(P payload, int weight) {}
+
+    private static final class Segment<K, P> {
+        private final LinkedHashMap<CacheKey<K>, Weighted<P>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+    }
+
+    private final Segment<K, P>[] segments;
+    private final long maxSegmentWeight;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public PayloadCache(long maxWeight) {
+        this(maxWeight, DEFAULT_SEGMENTS);
+    }
+
+    public PayloadCache(long maxWeight, int segmentCount) {
+        if (maxWeight < 1 || segmentCount < 1)
+            throw new IllegalArgumentException("maxWeight and segmentCount must be positive");
+        @SuppressWarnings("unchecked")
+        Segment<K, P>[] segments = (Segment<K, P>[]) new Segment<?, ?>[segmentCount];
+        this.segments = segments;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>();
+        }
+        this.maxSegmentWeight = Math.max(1L, maxWeight / segmentCount);
+    }
+
+    /**
+     * @return the cached payload of key at exactly this version, or null
+     */
+    public P get(K key, long version) {
+        CacheKey<K> cacheKey = new CacheKey<>(key, version);
+        Segment<K, P> segment = segmentFor(cacheKey);
+        Weighted<P> found;
+        synchronized (segment) {
+            found = segment.entries.get(cacheKey);
+        }
+        if (found == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return found.payload();
+    }
+
+    /**
+     * @param serializedLength length of the payload's serialized form, used as its weight
+     */
+    public void put(K key, long version, P payload, int serializedLength) {
+        CacheKey<K> cacheKey = new CacheKey<>(key, version);
+        int weight = serializedLength + ENTRY_OVERHEAD;
+        if (weight > maxSegmentWeight)
+            return;
+        Segment<K, P> segment = segmentFor(cacheKey);
+        synchronized (segment) {
+            Weighted<P> previous = segment.entries.put(cacheKey, new Weighted<>(payload, weight));
+            segment.weight += weight - (previous == null ? 0 : previous.weight());
+            Iterator<Weighted<P>> eldest = segment.entries.values().iterator();
+            while (segment.weight > maxSegmentWeight && eldest.hasNext()) {
+                segment.weight -= eldest.next().weight();
+                eldest.remove();
+            }
+        }
+    }
+
+    public long weight() {
+        long total = 0;
+        for (Segment<K, P> segment : segments) {
+            synchronized (segment) {
+                total += segment.weight;
+            }
+        }
+        return total;
+    }
+
+    public double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return (total == 0) ? 0.0 : (double) h / total;
+    }
+
+    public void clear() {
+        for (Segment<K, P> segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    private Segment<K, P> segmentFor(CacheKey<K> cacheKey) {
+        int h = cacheKey.hashCode();
+        return segments[((h ^ (h >>> 16)) & 0x7fffffff) % segments.length];
+    }
+}
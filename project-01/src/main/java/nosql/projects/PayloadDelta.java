@@ -0,0 +1,34 @@
+package nosql.projects;
+
+/**
+ * Delta between two serialized payloads: the target minus the prefix and suffix it shares with
+ * the base, written as "prefixLength:suffixLength:middle". Successive versions of a record mostly
+ * differ in one field, so the middle is short.
+ */
+final class PayloadDelta {
+    private PayloadDelta() {}
+
+    static String encode(String base, String target) {
+        int max = Math.min(base.length(), target.length());
+        int prefix = 0;
+        while (prefix < max && base.charAt(prefix) == target.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix
+                && base.charAt(base.length() - 1 - suffix) == target.charAt(target.length() - 1 - suffix)) {
+            suffix++;
+        }
+        return prefix + ":" + suffix + ":" + target.substring(prefix, target.length() - suffix);
+    }
+
+    static String apply(String base, String delta) {
+        int first = delta.indexOf(':');
+        int second = delta.indexOf(':', first + 1);
+        if (first < 0 || second < 0)
+            throw new IllegalArgumentException("Malformed delta");
+        int prefix = Integer.parseInt(delta, 0, first, 10);
+        int suffix = Integer.parseInt(delta, first + 1, second, 10);
+        return base.substring(0, prefix) + delta.substring(second + 1) + base.substring(base.length() - suffix);
+    }
+}
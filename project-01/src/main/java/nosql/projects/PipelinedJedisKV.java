@@ -0,0 +1,133 @@
+package nosql.projects;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import nosql.projects.Material.AsyncKVStore;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * {@link AsyncKVStore} on top of a single Jedis connection. Requests of all caller threads are
+ * queued and a single flusher thread sends them as one pipeline per batch, so thousands of
+ * in-flight lookups share one connection and one platform thread.
+ */
+public final class PipelinedJedisKV implements AsyncKVStore, AutoCloseable {
+    private static final int DEFAULT_MAX_BATCH = 512;
+
+    private static final class Op {
+        final String key;
+        final String value;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        Response<String> response;
+
+        Op(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final Op POISON = new Op(null, null);
+
+    private final Jedis jedis;
+    private final String ns;
+    private final int maxBatch;
+    private final LinkedBlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    // guards closed, so no op can be queued behind POISON
+    private final Object closeLock = new Object();
+    private boolean closed;
+
+    public PipelinedJedisKV(String host, int port, String nameSpace) {
+        this(host, port, nameSpace, DEFAULT_MAX_BATCH);
+    }
+
+    public PipelinedJedisKV(String host, int port, String nameSpace, int maxBatch) {
+        if (maxBatch < 1)
+            throw new IllegalArgumentException("maxBatch must be positive");
+        this.jedis = new Jedis(host, port);
+        this.ns = (nameSpace == null || nameSpace.isEmpty()) ? "" : (nameSpace + ":");
+        this.maxBatch = maxBatch;
+        this.flusher = Thread.ofPlatform().daemon().name("jedis-pipeline-" + ns).start(this::flushLoop);
+    }
+
+    private String k(String k) {
+        return ns + k;
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String storeKey, String storeValue) {
+        return enqueue(new Op(k(storeKey), storeValue)).thenApply(ignored -> null);
+    }
+
+    @Override
+    public CompletableFuture<String> getAsync(String storeKey) {
+        return enqueue(new Op(k(storeKey), null));
+    }
+
+    private CompletableFuture<String> enqueue(Op op) {
+        synchronized (closeLock) {
+            if (closed)
+                return CompletableFuture.failedFuture(new IllegalStateException("Store closed"));
+            queue.add(op);
+        }
+        return op.result;
+    }
+
+    private void flushLoop() {
+        List<Op> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            // POISON is queued last, so the batch that drains it holds every remaining op
+            boolean stop = batch.remove(POISON);
+            flush(batch);
+            batch.clear();
+            if (stop)
+                return;
+        }
+    }
+
+    private void flush(List<Op> batch) {
+        if (batch.isEmpty())
+            return;
+        try (Pipeline pipeline = jedis.pipelined()) {
+            for (Op op : batch) {
+                op.response = (op.value == null) ? pipeline.get(op.key) : pipeline.set(op.key, op.value);
+            }
+            pipeline.sync();
+            for (Op op : batch) {
+                op.result.complete(op.response.get());
+            }
+        } catch (Exception exception) {
+            for (Op op : batch) {
+                op.result.completeExceptionally(new RuntimeException("Pipeline flush failed", exception));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (closeLock) {
+            if (closed)
+                return;
+            closed = true;
+            queue.add(POISON);
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } finally {
+            jedis.close();
+        }
+    }
+}
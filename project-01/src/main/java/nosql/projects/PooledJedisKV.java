@@ -0,0 +1,211 @@
+package nosql.projects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import nosql.projects.Material.BatchKVStore;
+import nosql.projects.Material.FlushableKVStore;
+import nosql.projects.Material.OrderedKVStore;
+import nosql.projects.Material.TraversableKVStore;
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.ConnectionPoolConfig;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+/**
+ * Thread-safe Redis store: every call borrows a connection from a pool, so concurrent writers and
+ * parallel snapshots each get their own connection. Keys are namespaced like in Test's stores,
+ * batches are sent as one pipeline, and version chain walks can run server-side as a Lua script.
+ * Indexes are sorted sets with all scores 0, scanned with ZRANGEBYLEX.
+ */
+public final class PooledJedisKV implements FlushableKVStore, BatchKVStore, TraversableKVStore, OrderedKVStore, AutoCloseable {
+    public static final int DEFAULT_TIMEOUT_MILLIS = 2_000;
+    public static final int DEFAULT_MAX_CONNECTIONS = 16;
+
+    // KEYS: head keys (or "" for an empty chain); ARGV[1]: t; ARGV[i + 1]: node prefix of KEYS[i].
+    // Returns one node per head, false (nil) where nothing is visible.
+    private static final String FIND_VISIBLE_SCRIPT = """
+            local t = tonumber(ARGV[1])
+            local function pointer(node, field)
+              local v = node[field]
+              if v == nil or v == cjson.null or v == '' then return nil end
+              return v
+            end
+            local out = {}
+            for i, head in ipairs(KEYS) do
+              local prefix = ARGV[i + 1]
+              local key = head
+              if key == '' then key = nil end
+              out[i] = false
+              while key do
+                local raw = redis.call('GET', key)
+                if not raw then break end
+                local node = cjson.decode(raw)
+                if node.ts <= t then out[i] = raw; break end
+                local nextKey = nil
+                local ridgy = pointer(node, 'ridgyKey')
+                if ridgy then
+                  local ridgyRaw = redis.call('GET', prefix .. ridgy)
+                  if ridgyRaw and cjson.decode(ridgyRaw).ts > t then nextKey = prefix .. ridgy end
+                end
+                if not nextKey then
+                  local n = pointer(node, 'nextKey')
+                  if n then nextKey = prefix .. n end
+                end
+                key = nextKey
+              end
+            end
+            return out
+            """;
+
+    private final JedisPooled jedis;
+    private final String ns;
+    private final boolean serverSideTraversal;
+    private volatile String findVisibleSha;
+
+    public PooledJedisKV(String host, int port, String nameSpace) {
+        this(host, port, nameSpace, DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_CONNECTIONS, false);
+    }
+
+    public PooledJedisKV(String host, int port, String nameSpace, int timeoutMillis, int maxConnections) {
+        this(host, port, nameSpace, timeoutMillis, maxConnections, false);
+    }
+
+    /**
+     * @param serverSideTraversal whether version lists may walk their chains with the Lua script
+     *        (see {@link TraversableKVStore}). The script reads node keys it is not passed in KEYS,
+     *        so it only suits a standalone server, not Redis Cluster or script-effects replication.
+     */
+    public PooledJedisKV(String host, int port, String nameSpace, int timeoutMillis, int maxConnections, boolean serverSideTraversal) {
+        if (timeoutMillis < 0)
+            throw new IllegalArgumentException("timeoutMillis must not be negative");
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("maxConnections must be positive");
+
+        ConnectionPoolConfig poolConfig = new ConnectionPoolConfig();
+        poolConfig.setMaxTotal(maxConnections);
+        poolConfig.setMaxIdle(maxConnections);
+
+        this.jedis = new JedisPooled(new HostAndPort(host, port),
+                DefaultJedisClientConfig.builder()
+                        .connectionTimeoutMillis(timeoutMillis)
+                        .socketTimeoutMillis(timeoutMillis)
+                        .build(),
+                poolConfig);
+        this.ns = (nameSpace == null || nameSpace.isEmpty()) ? "" : (nameSpace + ":");
+        this.serverSideTraversal = serverSideTraversal;
+    }
+
+    private String k(String k) {
+        return ns + k;
+    }
+
+    @Override
+    public void put(String storeKey, String storeValue) {
+        jedis.set(k(storeKey), storeValue);
+    }
+
+    @Override
+    public String get(String storeKey) {
+        return jedis.get(k(storeKey));
+    }
+
+    @Override
+    public void putAll(Map<String, String> entries) {
+        if (entries.isEmpty())
+            return;
+        try (AbstractPipeline pipeline = jedis.pipelined()) {
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                pipeline.set(k(e.getKey()), e.getValue());
+            }
+            pipeline.sync();
+        }
+    }
+
+    @Override
+    public List<String> getAll(List<String> storeKeys) {
+        List<Response<String>> responses = new ArrayList<>(storeKeys.size());
+        try (AbstractPipeline pipeline = jedis.pipelined()) {
+            for (String storeKey : storeKeys) {
+                responses.add(pipeline.get(k(storeKey)));
+            }
+            pipeline.sync();
+        }
+        List<String> values = new ArrayList<>(responses.size());
+        for (Response<String> response : responses) {
+            values.add(response.get());
+        }
+        return values;
+    }
+
+    @Override
+    public boolean traversalSupported() {
+        return serverSideTraversal;
+    }
+
+    @Override
+    public String findVisible(String headKey, String nodePrefix, long t) {
+        return findVisibleAll(Collections.singletonList(headKey), List.of(nodePrefix), t).get(0);
+    }
+
+    @Override
+    public List<String> findVisibleAll(List<String> headKeys, List<String> nodePrefixes, long t) {
+        if (headKeys.isEmpty())
+            return new ArrayList<>();
+        List<String> keys = new ArrayList<>(headKeys.size());
+        List<String> args = new ArrayList<>(headKeys.size() + 1);
+        args.add(String.valueOf(t));
+        for (int i = 0; i < headKeys.size(); i++) {
+            keys.add(headKeys.get(i) == null ? "" : k(headKeys.get(i)));
+            args.add(k(nodePrefixes.get(i)));
+        }
+        List<?> reply = (List<?>) evalFindVisible(keys, args);
+        List<String> values = new ArrayList<>(reply.size());
+        for (Object node : reply) {
+            values.add((node instanceof String s) ? s : null);
+        }
+        return values;
+    }
+
+    private Object evalFindVisible(List<String> keys, List<String> args) {
+        String sha = findVisibleSha;
+        if (sha != null) {
+            try {
+                return jedis.evalsha(sha, keys, args);
+            } catch (JedisNoScriptException exception) {
+                // script cache was flushed or the server restarted; load it again below
+            }
+        }
+        findVisibleSha = jedis.scriptLoad(FIND_VISIBLE_SCRIPT);
+        return jedis.evalsha(findVisibleSha, keys, args);
+    }
+
+    @Override
+    public void addToIndex(String index, String member) {
+        jedis.zadd(k(index), 0, member);
+    }
+
+    @Override
+    public List<String> scanIndex(String index, String from, boolean fromInclusive, String to, boolean toInclusive, int limit) {
+        String min = (from == null) ? "-" : (fromInclusive ? "[" : "(") + from;
+        String max = (to == null) ? "+" : (toInclusive ? "[" : "(") + to;
+        if (limit > 0)
+            return jedis.zrangeByLex(k(index), min, max, 0, limit);
+        return jedis.zrangeByLex(k(index), min, max);
+    }
+
+    @Override
+    public void flushDB() {
+        jedis.flushDB();
+    }
+
+    @Override
+    public void close() {
+        jedis.close();
+    }
+}
@@ -0,0 +1,103 @@
+package nosql.projects;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import nosql.projects.Material.BatchKVStore;
+import nosql.projects.Material.KVStore;
+import nosql.projects.Material.TraversableKVStore;
+
+/**
+ * View on a store that prepends a fixed prefix to every key, so several version lists can share
+ * one store without their head/meta/node keys colliding. Batches and traversals are forwarded if
+ * the underlying store supports them.
+ */
+public final class PrefixedKVStore implements BatchKVStore, TraversableKVStore {
+    private final KVStore store;
+    private final String prefix;
+
+    public PrefixedKVStore(KVStore store, String prefix) {
+        this.store = Objects.requireNonNull(store);
+        this.prefix = Objects.requireNonNull(prefix);
+    }
+
+    @Override
+    public void put(String storeKey, String storeValue) {
+        store.put(prefix + storeKey, storeValue);
+    }
+
+    @Override
+    public String get(String storeKey) {
+        return store.get(prefix + storeKey);
+    }
+
+    @Override
+    public void putAll(Map<String, String> entries) {
+        if (store instanceof BatchKVStore batch) {
+            Map<String, String> prefixed = new LinkedHashMap<>();
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                prefixed.put(prefix + e.getKey(), e.getValue());
+            }
+            batch.putAll(prefixed);
+        } else {
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    @Override
+    public List<String> getAll(List<String> storeKeys) {
+        List<String> prefixed = new ArrayList<>(storeKeys.size());
+        for (String storeKey : storeKeys) {
+            prefixed.add(prefix + storeKey);
+        }
+        if (store instanceof BatchKVStore batch)
+            return batch.getAll(prefixed);
+        List<String> values = new ArrayList<>(prefixed.size());
+        for (String storeKey : prefixed) {
+            values.add(store.get(storeKey));
+        }
+        return values;
+    }
+
+    /**
+     * @return this view on the store behind a map's write batch, whose puts are never buffered;
+     * this view itself if its store does not batch
+     */
+    public PrefixedKVStore unbuffered() {
+        if (store instanceof WriteBatchKVStore batch)
+            return new PrefixedKVStore(batch.unbuffered(), prefix);
+        if (store instanceof PrefixedKVStore inner)
+            return new PrefixedKVStore(inner.unbuffered(), prefix);
+        return this;
+    }
+
+    @Override
+    public boolean traversalSupported() {
+        return store instanceof TraversableKVStore traversable && traversable.traversalSupported();
+    }
+
+    @Override
+    public String findVisible(String headKey, String nodePrefix, long t) {
+        if (traversalSupported())
+            return ((TraversableKVStore) store).findVisible(headKey == null ? null : prefix + headKey, prefix + nodePrefix, t);
+        return ChainWalk.findVisible(this::get, headKey, nodePrefix, t);
+    }
+
+    @Override
+    public List<String> findVisibleAll(List<String> headKeys, List<String> nodePrefixes, long t) {
+        if (!traversalSupported())
+            return TraversableKVStore.super.findVisibleAll(headKeys, nodePrefixes, t);
+        List<String> heads = new ArrayList<>(headKeys.size());
+        List<String> prefixes = new ArrayList<>(nodePrefixes.size());
+        for (int i = 0; i < headKeys.size(); i++) {
+            heads.add(headKeys.get(i) == null ? null : prefix + headKeys.get(i));
+            prefixes.add(prefix + nodePrefixes.get(i));
+        }
+        return ((TraversableKVStore) store).findVisibleAll(heads, prefixes, t);
+    }
+}
@@ -0,0 +1,270 @@
+package nosql.projects;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import nosql.projects.Material.KVStore;
+import nosql.projects.Material.MultiVersionMap;
+import nosql.projects.Material.MultiVersionMapFactory;
+
+/**
+ * Splits the key space into ordered partitions, each backed by its own MultiVersionMap and store.
+ * Range snapshots only contact the partitions overlapping the range.
+ *
+ * A partition that grows past maxKeysPerPartition keys, or past maxAppendsPerSecond appends, is
+ * split at its median key. The upper half gets a fresh map and store; its history older than the
+ * split stays where it is, and reads fall through to it. So a split never copies version data.
+ */
+public final class RangePartitionedMVM<K extends Comparable<? super K>, P> implements MultiVersionMap<K, P> {
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final class Partition {
+        private final MultiVersionMap<K, P> mvm;
+        // mvm draws from here, moved up to the shared clock's version before each write
+        private final VersionClock partitionClock = new VersionClock();
+        // Owner of this partition's keys before the split that created it, or null.
+        private final Partition predecessor;
+        private final TreeSet<K> keys = new TreeSet<>();
+        private long windowStart = System.nanoTime();
+        private int appendsInWindow;
+
+        Partition(Partition predecessor) {
+            this.mvm = Objects.requireNonNull(factory.create(storeSupplier.get(), partitionClock));
+            this.predecessor = predecessor;
+        }
+
+        long append(K k, P p, long version) {
+            partitionClock.advanceTo(version - 1);
+            return checkVersion(version, mvm.append(k, p));
+        }
+
+        // returns the version the partition assigned; the caller checks it
+        long commit(Map<K, P> batch, long version) {
+            partitionClock.advanceTo(version - 1);
+            return mvm.commit(batch);
+        }
+
+        Map.Entry<K, P> readThrough(K k, long t) {
+            for (Partition tier = this; tier != null; tier = tier.predecessor) {
+                Map.Entry<K, P> visible = tier.mvm.get(k, t);
+                if (visible != null)
+                    return visible;
+            }
+            return null;
+        }
+
+        void rangeThrough(K fromKey, boolean fromInc, K toKey, boolean toInc, long t, List<Map.Entry<K, P>> out) {
+            if (predecessor == null) {
+                mvm.rangeSnapshot(fromKey, fromInc, toKey, toInc, t).forEachRemaining(out::add);
+                return;
+            }
+            // Newer tiers win; a tier only has versions older than every version of the tier above it.
+            TreeMap<K, Map.Entry<K, P>> merged = new TreeMap<>();
+            for (Partition tier = this; tier != null; tier = tier.predecessor) {
+                Iterator<Map.Entry<K, P>> it = tier.mvm.rangeSnapshot(fromKey, fromInc, toKey, toInc, t);
+                while (it.hasNext()) {
+                    Map.Entry<K, P> e = it.next();
+                    merged.putIfAbsent(e.getKey(), e);
+                }
+            }
+            out.addAll(merged.values());
+        }
+
+        boolean isHot(long now, int appends) {
+            if (now - windowStart > RATE_WINDOW_NANOS) {
+                windowStart = now;
+                appendsInWindow = 0;
+            }
+            appendsInWindow += appends;
+            return keys.size() > maxKeysPerPartition || appendsInWindow > maxAppendsPerSecond;
+        }
+
+        /** Starts a fresh rate window, so a split half has to get hot on its own before it splits again. */
+        void resetRate(long now) {
+            windowStart = now;
+            appendsInWindow = 0;
+        }
+    }
+
+    private final MultiVersionMapFactory<K, P> factory;
+    private final Supplier<? extends KVStore> storeSupplier;
+    private final VersionClock clock;
+    private final int maxKeysPerPartition;
+    private final int maxAppendsPerSecond;
+
+    // Partitions by inclusive lower bound; the first partition has no lower bound.
+    private final TreeMap<K, Partition> bounded = new TreeMap<>();
+    private final Partition first;
+
+    public RangePartitionedMVM(MultiVersionMapFactory<K, P> factory, Supplier<? extends KVStore> storeSupplier, int maxKeysPerPartition, int maxAppendsPerSecond) {
+        this(factory, storeSupplier, Collections.emptyList(), maxKeysPerPartition, maxAppendsPerSecond, new VersionClock());
+    }
+
+    public RangePartitionedMVM(MultiVersionMapFactory<K, P> factory, Supplier<? extends KVStore> storeSupplier, Collection<K> initialSplits, int maxKeysPerPartition, int maxAppendsPerSecond, VersionClock clock) {
+        if (maxKeysPerPartition < 2)
+            throw new IllegalArgumentException("maxKeysPerPartition must be at least 2");
+        if (maxAppendsPerSecond < 1)
+            throw new IllegalArgumentException("maxAppendsPerSecond must be positive");
+        this.factory = Objects.requireNonNull(factory);
+        this.storeSupplier = Objects.requireNonNull(storeSupplier);
+        this.clock = Objects.requireNonNull(clock);
+        this.maxKeysPerPartition = maxKeysPerPartition;
+        this.maxAppendsPerSecond = maxAppendsPerSecond;
+
+        this.first = new Partition(null);
+        for (K split : new TreeSet<>(initialSplits)) {
+            bounded.put(split, new Partition(null));
+        }
+    }
+
+    public int partitionCount() {
+        return bounded.size() + 1;
+    }
+
+    private Partition partitionFor(K k) {
+        Map.Entry<K, Partition> e = bounded.floorEntry(k);
+        return (e == null) ? first : e.getValue();
+    }
+
+    @Override
+    public Map.Entry<K, P> get(K k, long t) {
+        Partition partition = partitionFor(k);
+        if (!partition.keys.contains(k))
+            return null;
+        return partition.readThrough(k, t);
+    }
+
+    @Override
+    public long append(K k, P p) {
+        Partition partition = partitionFor(k);
+        partition.keys.add(k);
+        long assigned = partition.append(k, p, clock.next());
+        long now = System.nanoTime();
+        if (partition.isHot(now, 1) && partition.keys.size() >= 2)
+            split(partition, now);
+        return assigned;
+    }
+
+    /**
+     * Commits the batch under one version in every partition it touches. The version stays above
+     * the clock's stable version until all partitions are written. If a partition fails, the
+     * partitions written before it keep their part of the batch, which no map can take back; the
+     * version is then never published, so stable() stays below it from then on and readers that
+     * clamp to stable() never see the partial batch.
+     */
+    @Override
+    public long commit(Map<K, P> batch) {
+        if (batch.isEmpty())
+            throw new IllegalArgumentException("Empty batch");
+        Map<Partition, Map<K, P>> perPartition = new LinkedHashMap<>();
+        for (Map.Entry<K, P> e : new TreeMap<>(batch).entrySet()) {
+            perPartition.computeIfAbsent(partitionFor(e.getKey()), partition -> new HashMap<>()).put(e.getKey(), e.getValue());
+        }
+        long version = clock.reserve();
+        boolean written = false;
+        try {
+            for (Map.Entry<Partition, Map<K, P>> part : perPartition.entrySet()) {
+                long assigned = part.getKey().commit(part.getValue(), version);
+                written = true;
+                part.getKey().keys.addAll(part.getValue().keySet());
+                checkVersion(version, assigned);
+            }
+        } catch (RuntimeException exception) {
+            // a partition's commit stores all of its part or none
+            if (!written)
+                clock.publish(version);
+            throw exception;
+        }
+        clock.publish(version);
+        long now = System.nanoTime();
+        for (Map.Entry<Partition, Map<K, P>> part : perPartition.entrySet()) {
+            Partition partition = part.getKey();
+            if (partition.isHot(now, part.getValue().size()) && partition.keys.size() >= 2)
+                split(partition, now);
+        }
+        return version;
+    }
+
+    private static long checkVersion(long version, long assigned) {
+        if (assigned != version)
+            throw new IllegalStateException("Partition assigned " + assigned + " instead of " + version);
+        return version;
+    }
+
+    private void split(Partition partition, long now) {
+        Iterator<K> it = partition.keys.iterator();
+        for (int i = 0; i < partition.keys.size() / 2; i++) {
+            it.next();
+        }
+        K median = it.next();
+
+        Partition upper = new Partition(partition);
+        upper.keys.addAll(partition.keys.tailSet(median, true));
+        partition.keys.removeAll(upper.keys);
+        bounded.put(median, upper);
+        partition.resetRate(now);
+        upper.resetRate(now);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, P>> rangeSnapshot(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp) {
+        int cmp = fromKey.compareTo(toKey);
+        if (cmp > 0 || (cmp == 0 && !(fromInclusive && toInclusive)))
+            return Collections.<Map.Entry<K, P>> emptyList().iterator();
+
+        List<Map.Entry<K, P>> out = new ArrayList<>();
+        Map.Entry<K, Partition> lowerEntry = bounded.floorEntry(fromKey);
+        K lower = (lowerEntry == null) ? null : lowerEntry.getKey();
+        Partition current = (lowerEntry == null) ? first : lowerEntry.getValue();
+
+        // Walk the overlapping partitions in key order, clipping the range to each one's bounds.
+        for (Map.Entry<K, Partition> next : bounded.subMap(fromKey, false, toKey, toInclusive).entrySet()) {
+            queryClipped(current, lower, fromKey, fromInclusive, next.getKey(), false, timeStamp, out);
+            lower = next.getKey();
+            current = next.getValue();
+        }
+        queryClipped(current, lower, fromKey, fromInclusive, toKey, toInclusive, timeStamp, out);
+        return out.iterator();
+    }
+
+    private void queryClipped(Partition partition, K lower, K fromKey, boolean fromInc, K toKey, boolean toInc, long t, List<Map.Entry<K, P>> out) {
+        if (partition.keys.isEmpty())
+            return;
+        if (lower != null && lower.compareTo(fromKey) > 0) {
+            fromKey = lower;
+            fromInc = true;
+        }
+        int cmp = fromKey.compareTo(toKey);
+        if (cmp > 0 || (cmp == 0 && !(fromInc && toInc)))
+            return;
+        partition.rangeThrough(fromKey, fromInc, toKey, toInc, t, out);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, P>> snapshot(long timeStamp) {
+        K min = first.keys.isEmpty() ? null : first.keys.first();
+        K max = null;
+        for (Partition partition : bounded.values()) {
+            if (!partition.keys.isEmpty()) {
+                if (min == null)
+                    min = partition.keys.first();
+                max = partition.keys.last();
+            }
+        }
+        if (min == null)
+            return Collections.<Map.Entry<K, P>> emptyList().iterator();
+        if (max == null)
+            max = first.keys.last();
+        return rangeSnapshot(min, true, max, true, timeStamp);
+    }
+}
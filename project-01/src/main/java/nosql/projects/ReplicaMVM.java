@@ -0,0 +1,214 @@
+package nosql.projects;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import nosql.projects.Material.KVStore;
+import nosql.projects.Material.LogEntry;
+import nosql.projects.Material.MultiVersionMap;
+import nosql.projects.Material.MultiVersionMapFactory;
+import nosql.projects.Material.ReusableEntry;
+
+/**
+ * Read-only follower of a primary map, kept in its own store. It applies the primary's shipped
+ * log (see {@link LogShippingMVM}) under the primary's versions and serves reads at any timestamp
+ * up to its watermark, the newest version applied; later timestamps are clamped to it, so every
+ * read sees a prefix of the primary's history.
+ *
+ * Applying and reading may run on different threads. Snapshots are fetched a page at a time, and
+ * log entries are applied between pages; versions at or below the watermark never change, so a
+ * snapshot stays consistent across its pages.
+ */
+public final class ReplicaMVM<K extends Comparable<? super K>, P> implements MultiVersionMap<K, P> {
+    private static final int SCAN_PAGE = 1024;
+
+    private final MultiVersionMap<K, P> follower;
+    private final VersionClock clock = new VersionClock();
+    private volatile long watermark = Long.MIN_VALUE;
+    // sequence number of the last applied entry
+    private long applied;
+    private K firstKey;
+    private K lastKey;
+
+    /**
+     * @param factory creates the map the log is applied to; it must assign its versions from the
+     *        given clock
+     */
+    public ReplicaMVM(MultiVersionMapFactory<K, P> factory, KVStore store) {
+        this.follower = Objects.requireNonNull(factory.create(Objects.requireNonNull(store), clock));
+    }
+
+    /**
+     * Applies one shipped entry. Entries must arrive in sequence order; an entry whose sequence
+     * number was applied before is skipped, so a log may be replayed after a reconnect. A gap in the
+     * sequence, or a version not above the watermark, is rejected with IllegalStateException.
+     */
+    public synchronized void apply(LogEntry<K, P> entry) {
+        long sequence = entry.sequence();
+        if (sequence <= applied)
+            return;
+        if (sequence != applied + 1)
+            throw new IllegalStateException("Log entry " + sequence + " arrived after " + applied);
+        long version = entry.version();
+        if (version <= watermark)
+            throw new IllegalStateException("Log entry " + sequence + " has version " + version + " at or below the watermark " + watermark);
+        if (entry.writes().isEmpty())
+            throw new IllegalArgumentException("Empty log entry " + version);
+        // the follower draws version from the clock next
+        clock.advanceTo(version - 1);
+        long assigned;
+        if (entry.writes().size() == 1) {
+            Map.Entry<K, P> write = entry.writes().entrySet().iterator().next();
+            assigned = follower.append(write.getKey(), write.getValue());
+        } else {
+            assigned = follower.commit(entry.writes());
+        }
+        if (assigned != version)
+            throw new IllegalStateException("Applied version " + version + " as " + assigned);
+        for (K k : entry.writes().keySet()) {
+            if (firstKey == null || k.compareTo(firstKey) < 0)
+                firstKey = k;
+            if (lastKey == null || k.compareTo(lastKey) > 0)
+                lastKey = k;
+        }
+        applied = sequence;
+        watermark = version;
+        notifyAll();
+    }
+
+    /**
+     * @return the newest applied version, or Long.MIN_VALUE if nothing was applied yet
+     */
+    public long watermark() {
+        return watermark;
+    }
+
+    /**
+     * Waits until the entry of version is applied, e.g. to read a primary's write back.
+     * @return true if the watermark reached version before the timeout
+     */
+    public synchronized boolean awaitWatermark(long version, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (watermark < version) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    @Override
+    public long append(K k, P p) {
+        throw new UnsupportedOperationException("Replicas are read-only");
+    }
+
+    @Override
+    public long commit(Map<K, P> batch) {
+        throw new UnsupportedOperationException("Replicas are read-only");
+    }
+
+    @Override
+    public synchronized Map.Entry<K, P> get(K k, long t) {
+        return follower.get(k, Math.min(t, watermark));
+    }
+
+    @Override
+    public synchronized boolean get(K k, long t, ReusableEntry<K, P> into) {
+        return follower.get(k, Math.min(t, watermark), into);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, P>> rangeSnapshot(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp) {
+        return new PageIterator(fromKey, fromInclusive, toKey, toInclusive, Math.min(timestamp, watermark));
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, P>> snapshot(long timestamp) {
+        K first;
+        K last;
+        synchronized (this) {
+            first = firstKey;
+            last = lastKey;
+        }
+        if (first == null)
+            return Collections.<Map.Entry<K, P>> emptyList().iterator();
+        return rangeSnapshot(first, true, last, true, timestamp);
+    }
+
+    @Override
+    public synchronized List<Map.Entry<K, P>> rangeSnapshotPage(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, int limit) {
+        return follower.rangeSnapshotPage(fromKey, fromInclusive, toKey, toInclusive, Math.min(timestamp, watermark), limit);
+    }
+
+    @Override
+    public synchronized long count(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp) {
+        return follower.count(fromKey, fromInclusive, toKey, toInclusive, Math.min(timestamp, watermark));
+    }
+
+    @Override
+    public synchronized long count(long timestamp) {
+        return follower.count(Math.min(timestamp, watermark));
+    }
+
+    @Override
+    public synchronized <V> Optional<V> aggregate(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        return follower.aggregate(fromKey, fromInclusive, toKey, toInclusive, Math.min(timestamp, watermark), extractor, combiner);
+    }
+
+    @Override
+    public synchronized <V> Optional<V> aggregate(long timestamp, Function<? super P, ? extends V> extractor, BinaryOperator<V> combiner) {
+        return follower.aggregate(Math.min(timestamp, watermark), extractor, combiner);
+    }
+
+    /** Fetches the range a page at a time, holding the lock only while a page is read. */
+    private final class PageIterator implements Iterator<Map.Entry<K, P>> {
+        private final K toKey;
+        private final boolean toInclusive;
+        private final long timestamp;
+        private K from;
+        private boolean fromInclusive;
+        private Iterator<Map.Entry<K, P>> page = Collections.emptyIterator();
+        private boolean exhausted;
+
+        PageIterator(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timestamp) {
+            this.from = fromKey;
+            this.fromInclusive = fromInclusive;
+            this.toKey = toKey;
+            this.toInclusive = toInclusive;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!page.hasNext() && !exhausted) {
+                List<Map.Entry<K, P>> entries;
+                synchronized (ReplicaMVM.this) {
+                    entries = follower.rangeSnapshotPage(from, fromInclusive, toKey, toInclusive, timestamp, SCAN_PAGE);
+                }
+                exhausted = entries.size() < SCAN_PAGE;
+                if (!entries.isEmpty()) {
+                    from = entries.get(entries.size() - 1).getKey();
+                    fromInclusive = false;
+                }
+                page = entries.iterator();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public Map.Entry<K, P> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return page.next();
+        }
+    }
+}
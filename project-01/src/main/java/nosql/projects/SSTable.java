@@ -0,0 +1,338 @@
+package nosql.projects;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable sorted file of string pairs, the on-disk part of {@link LsmKVStore}.
+ *
+ * Layout: data blocks of about BLOCK_SIZE bytes holding [key length][key][value length][value]
+ * records in key order, then the block index (smallest key, and per block its last key, offset
+ * and length), the Bloom filter over all keys and a fixed footer with the index and filter
+ * offsets. Index and filter are loaded when the table is opened; a lookup that passes the filter
+ * reads exactly one block.
+ */
+final class SSTable {
+    static final int BLOCK_SIZE = 4 * 1024;
+    private static final long MAGIC = 0x4c534d5353543031L;
+    private static final int FOOTER_BYTES = 4 * Long.BYTES;
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+
+    final long seq;
+    final Path path;
+    final String smallest;
+    final String largest;
+    final long entries;
+    final long fileBytes;
+
+    private final FileChannel channel;
+    private final String[] lastKeys;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final BloomFilter bloom;
+    // one per view holding this table; the file is closed when the last one is gone
+    private final AtomicInteger refs = new AtomicInteger();
+    private volatile boolean obsolete;
+
+    private SSTable(long seq, Path path, FileChannel channel, String smallest, String[] lastKeys, long[] offsets, int[] lengths, BloomFilter bloom, long entries, long fileBytes) {
+        this.seq = seq;
+        this.path = path;
+        this.channel = channel;
+        this.smallest = smallest;
+        this.largest = lastKeys[lastKeys.length - 1];
+        this.lastKeys = lastKeys;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.bloom = bloom;
+        this.entries = entries;
+        this.fileBytes = fileBytes;
+    }
+
+    static SSTable open(Path path, long seq) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer footer = readFully(channel, size - FOOTER_BYTES, FOOTER_BYTES);
+            long indexOffset = footer.getLong();
+            long bloomOffset = footer.getLong();
+            long entries = footer.getLong();
+            if (footer.getLong() != MAGIC)
+                throw new IOException("Not an SSTable: " + path);
+
+            ByteBuffer meta = readFully(channel, indexOffset, (int) (size - FOOTER_BYTES - indexOffset));
+            int blocks = meta.getInt();
+            String smallest = readString(meta);
+            String[] lastKeys = new String[blocks];
+            long[] offsets = new long[blocks];
+            int[] lengths = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                lastKeys[i] = readString(meta);
+                offsets[i] = meta.getLong();
+                lengths[i] = meta.getInt();
+            }
+            meta.position((int) (bloomOffset - indexOffset));
+            int hashes = meta.getInt();
+            long[] words = new long[meta.getInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = meta.getLong();
+            }
+            return new SSTable(seq, path, channel, smallest, lastKeys, offsets, lengths, new BloomFilter(words, hashes), entries, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the value of key, or null if this table does not hold it
+     */
+    String get(String key) throws IOException {
+        if (key.compareTo(smallest) < 0 || key.compareTo(largest) > 0 || !bloom.mightContain(BloomFilter.hash(key)))
+            return null;
+        int block = blockFor(key);
+        ByteBuffer buffer = readBlock(block);
+        while (buffer.hasRemaining()) {
+            int c = readString(buffer).compareTo(key);
+            int valueLength = buffer.getInt();
+            if (c == 0)
+                return readString(buffer, valueLength);
+            if (c > 0)
+                return null;
+            buffer.position(buffer.position() + valueLength);
+        }
+        return null;
+    }
+
+    boolean overlaps(String lo, String hi) {
+        return largest.compareTo(lo) >= 0 && smallest.compareTo(hi) <= 0;
+    }
+
+    /**
+     * Entries in key order, starting at from (or the first key if from is null). Blocks are read as
+     * the iteration reaches them.
+     */
+    Iterator<Map.Entry<String, String>> iterator(String from, boolean fromInclusive) {
+        int firstBlock = (from == null) ? 0 : blockFor(from);
+        return new Iterator<>() {
+            private int block = firstBlock;
+            private ByteBuffer buffer;
+            private Map.Entry<String, String> next = advance();
+
+            private Map.Entry<String, String> advance() {
+                try {
+                    while (true) {
+                        if (buffer == null || !buffer.hasRemaining()) {
+                            if (block >= lastKeys.length)
+                                return null;
+                            buffer = readBlock(block++);
+                        }
+                        String key = readString(buffer);
+                        String value = readString(buffer);
+                        if (from != null) {
+                            int c = key.compareTo(from);
+                            if (c < 0 || (c == 0 && !fromInclusive))
+                                continue;
+                        }
+                        return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("SSTable read failed", e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Map.Entry<String, String> current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    void retain() {
+        refs.incrementAndGet();
+    }
+
+    /**
+     * Marks the table as replaced; its file is deleted once no view uses it any more.
+     */
+    void markObsolete() {
+        obsolete = true;
+    }
+
+    void release() {
+        if (refs.decrementAndGet() != 0)
+            return;
+        try {
+            channel.close();
+            if (obsolete)
+                Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new RuntimeException("SSTable close failed", e);
+        }
+    }
+
+    // first block whose last key is >= key; the last block if key is beyond the table
+    private int blockFor(String key) {
+        int i = Arrays.binarySearch(lastKeys, key);
+        if (i < 0)
+            i = -i - 1;
+        return Math.min(i, lastKeys.length - 1);
+    }
+
+    private ByteBuffer readBlock(int block) throws IOException {
+        return readFully(channel, offsets[block], lengths[block]);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Truncated SSTable");
+        }
+        return buffer.flip();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return readString(buffer, buffer.getInt());
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
+    /**
+     * Writes a table from entries added in strictly ascending key order.
+     */
+    static final class Writer implements AutoCloseable {
+        private final Path path;
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+        private final List<String> lastKeys = new ArrayList<>();
+        private final List<long[]> blocks = new ArrayList<>();
+        private long[] hashes = new long[1024];
+        private long entries;
+        private long written;
+        private long blockStart;
+        private String smallest;
+        private String last;
+        private boolean finished;
+
+        Writer(Path path) throws IOException {
+            this.path = path;
+            this.file = new FileOutputStream(path.toFile());
+            this.out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+        }
+
+        void add(String key, String value) throws IOException {
+            if (last != null && key.compareTo(last) <= 0)
+                throw new IllegalArgumentException("Keys must be added in ascending order");
+            if (smallest == null)
+                smallest = key;
+            written += writeString(out, key) + writeString(out, value);
+            if (entries == hashes.length)
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            hashes[(int) entries++] = BloomFilter.hash(key);
+            last = key;
+            if (written - blockStart >= BLOCK_SIZE)
+                endBlock();
+        }
+
+        long bytesWritten() {
+            return written;
+        }
+
+        long entries() {
+            return entries;
+        }
+
+        /**
+         * Writes index, filter and footer and syncs the file. At least one entry must have been added.
+         */
+        void finish() throws IOException {
+            if (entries == 0)
+                throw new IllegalStateException("Empty SSTable");
+            if (written > blockStart)
+                endBlock();
+
+            long indexOffset = written;
+            out.writeInt(lastKeys.size());
+            written += Integer.BYTES + writeString(out, smallest);
+            for (int i = 0; i < lastKeys.size(); i++) {
+                written += writeString(out, lastKeys.get(i));
+                out.writeLong(blocks.get(i)[0]);
+                out.writeInt((int) blocks.get(i)[1]);
+                written += Long.BYTES + Integer.BYTES;
+            }
+
+            long bloomOffset = written;
+            BloomFilter bloom = new BloomFilter((int) Math.max(1, entries), BLOOM_FALSE_POSITIVE_RATE);
+            for (int i = 0; i < entries; i++) {
+                bloom.add(hashes[i]);
+            }
+            long[] words = bloom.words();
+            out.writeInt(bloom.hashes());
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeLong(entries);
+            out.writeLong(MAGIC);
+            out.flush();
+            file.getFD().sync();
+            out.close();
+            finished = true;
+        }
+
+        /**
+         * Closes the file; a table that was not finished is deleted.
+         */
+        @Override
+        public void close() throws IOException {
+            out.close();
+            if (!finished)
+                Files.deleteIfExists(path);
+        }
+
+        private void endBlock() {
+            lastKeys.add(last);
+            blocks.add(new long[] { blockStart, written - blockStart });
+            blockStart = written;
+        }
+
+        private static int writeString(DataOutputStream out, String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            return Integer.BYTES + bytes.length;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package nosql.projects;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import nosql.projects.Material.KVStore;
+import nosql.projects.Material.MultiVersionMap;
+import nosql.projects.Material.MultiVersionMapFactory;
+
+/**
+ * Spreads the keys over one MultiVersionMap per store with a consistent-hash ring. Versions are
+ * drawn from one shared clock and handed to the owning shard, so a version means the same point in
+ * time on every shard and snapshots can be merged across them.
+ */
+public final class ShardedMultiVersionMap<K extends Comparable<? super K>, P> implements MultiVersionMap<K, P> {
+    private static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    private final List<MultiVersionMap<K, P>> shards = new ArrayList<>();
+    private final List<Object> shardLocks = new ArrayList<>();
+    // each shard draws from its own clock, moved up to the shared clock's version before a write
+    private final List<VersionClock> shardClocks = new ArrayList<>();
+    private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+    private final VersionClock clock;
+
+    public ShardedMultiVersionMap(List<? extends KVStore> stores, MultiVersionMapFactory<K, P> factory) {
+        this(stores, factory, new VersionClock(), DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ShardedMultiVersionMap(List<? extends KVStore> stores, MultiVersionMapFactory<K, P> factory, VersionClock clock, int virtualNodes) {
+        Objects.requireNonNull(factory);
+        if (stores.isEmpty())
+            throw new IllegalArgumentException("At least one store is required");
+        if (virtualNodes < 1)
+            throw new IllegalArgumentException("virtualNodes must be positive");
+        this.clock = Objects.requireNonNull(clock);
+
+        for (int i = 0; i < stores.size(); i++) {
+            VersionClock shardClock = new VersionClock();
+            shardClocks.add(shardClock);
+            shards.add(Objects.requireNonNull(factory.create(stores.get(i), shardClock)));
+            shardLocks.add(new Object());
+            for (int v = 0; v < virtualNodes; v++) {
+                ring.putIfAbsent(mix(("shard-" + i + "#" + v).hashCode()), i);
+            }
+        }
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    public int shardOf(K k) {
+        Map.Entry<Integer, Integer> owner = ring.ceilingEntry(mix(k.hashCode()));
+        return (owner != null ? owner : ring.firstEntry()).getValue();
+    }
+
+    public VersionClock clock() {
+        return clock;
+    }
+
+    @Override
+    public Map.Entry<K, P> get(K k, long t) {
+        int shard = shardOf(k);
+        synchronized (shardLocks.get(shard)) {
+            return shards.get(shard).get(k, t);
+        }
+    }
+
+    @Override
+    public long append(K k, P p) {
+        // The version is drawn inside the shard lock, so versions stay increasing per shard.
+        int shard = shardOf(k);
+        synchronized (shardLocks.get(shard)) {
+            long version = clock.next();
+            shardClocks.get(shard).advanceTo(version - 1);
+            return checkVersion(version, shards.get(shard).append(k, p));
+        }
+    }
+
+    /**
+     * Commits the batch under one version on every shard it touches. The version stays above the
+     * shared clock's stable version until all shards are written. If a shard fails, the shards
+     * written before it keep their part of the batch, which no map can take back; the version is
+     * then never published, so stable() stays below it from then on and readers that clamp to
+     * stable() never see the partial batch.
+     */
+    @Override
+    public long commit(Map<K, P> batch) {
+        if (batch.isEmpty())
+            throw new IllegalArgumentException("Empty batch");
+        TreeMap<Integer, Map<K, P>> perShard = new TreeMap<>();
+        for (Map.Entry<K, P> e : batch.entrySet()) {
+            perShard.computeIfAbsent(shardOf(e.getKey()), shard -> new HashMap<>()).put(e.getKey(), e.getValue());
+        }
+        return commitLocked(new ArrayList<>(perShard.entrySet()), 0);
+    }
+
+    // Takes the shard locks in shard order, so concurrent commits cannot deadlock, and draws the
+    // version once all are held.
+    private long commitLocked(List<Map.Entry<Integer, Map<K, P>>> perShard, int locked) {
+        if (locked < perShard.size()) {
+            synchronized (shardLocks.get(perShard.get(locked).getKey())) {
+                return commitLocked(perShard, locked + 1);
+            }
+        }
+        long version = clock.reserve();
+        int written = 0;
+        try {
+            for (Map.Entry<Integer, Map<K, P>> part : perShard) {
+                shardClocks.get(part.getKey()).advanceTo(version - 1);
+                long assigned = shards.get(part.getKey()).commit(part.getValue());
+                written++;
+                checkVersion(version, assigned);
+            }
+        } catch (RuntimeException exception) {
+            // a shard's commit stores all of its part or none, so without a written part the
+            // version holds nothing
+            if (written == 0)
+                clock.publish(version);
+            throw exception;
+        }
+        clock.publish(version);
+        return version;
+    }
+
+    private static long checkVersion(long version, long assigned) {
+        if (assigned != version)
+            throw new IllegalStateException("Shard assigned " + assigned + " instead of " + version);
+        return version;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, P>> rangeSnapshot(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long timeStamp) {
+        return mergeShards(shard -> shard.rangeSnapshot(fromKey, fromInclusive, toKey, toInclusive, timeStamp));
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, P>> snapshot(long timeStamp) {
+        return mergeShards(shard -> shard.snapshot(timeStamp));
+    }
+
+    private Iterator<Map.Entry<K, P>> mergeShards(Function<MultiVersionMap<K, P>, Iterator<Map.Entry<K, P>>> query) {
+        // Shards live on different stores, so their snapshots are fetched concurrently.
+        List<Iterator<Map.Entry<K, P>>> perShard = new ArrayList<>(shards.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<List<Map.Entry<K, P>>>> pending = new ArrayList<>(shards.size());
+            for (int i = 0; i < shards.size(); i++) {
+                final int shard = i;
+                pending.add(executor.submit(() -> {
+                    synchronized (shardLocks.get(shard)) {
+                        List<Map.Entry<K, P>> out = new ArrayList<>();
+                        query.apply(shards.get(shard)).forEachRemaining(out::add);
+                        return out;
+                    }
+                }));
+            }
+            for (Future<List<Map.Entry<K, P>>> f : pending) {
+                perShard.add(f.get().iterator());
+            }
+        } catch (Exception exception) {
+            throw new RuntimeException("Snapshot over shards failed", exception);
+        }
+        return new MergingIterator<>(perShard);
+    }
+
+    private static int mix(int h) {
+        // murmur3 finalizer, spreads clustered hashCodes (e.g. "KEY001".."KEY999") over the ring
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** k-way merge of per-shard iterators that are each sorted by key; shards never share a key. */
+    private static final class MergingIterator<K extends Comparable<? super K>, P> implements Iterator<Map.Entry<K, P>> {
+        private record Head<K, P>(Map.Entry<K, P> entry, Iterator<Map.Entry<K, P>> source) {}
+
+        private final PriorityQueue<Head<K, P>> heads;
+
+        MergingIterator(List<Iterator<Map.Entry<K, P>>> sources) {
+            this.heads = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> a.entry().getKey().compareTo(b.entry().getKey()));
+            for (Iterator<Map.Entry<K, P>> source : sources) {
+                if (source.hasNext())
+                    heads.add(new Head<>(source.next(), source));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<K, P> next() {
+            Head<K, P> head = heads.poll();
+            if (head == null)
+                throw new NoSuchElementException();
+            if (head.source().hasNext())
+                heads.add(new Head<>(head.source().next(), head.source()));
+            return head.entry();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package nosql.projects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import nosql.projects.Material.KVStore;
+
+/**
+ * Answers "which version of every key is visible at t" without walking version chains.
+ *
+ * Keys get a dense id on their first append. Every append is logged as (version, key id); after
+ * every 'every' appends the log segment is written to the store as "CP:log:" + n, together with a
+ * checkpoint "CP:" + n holding the newest version of every key at that point. The state at t is
+ * the nearest checkpoint at or below t plus the part of the following segment up to t, i.e. two
+ * store reads however old t is.
+ */
+final class SnapshotCheckpoints<K extends Comparable<? super K>> {
+    private static final String PREFIX = "CP:";
+    private static final String LOG_PREFIX = "CP:log:";
+
+    private final KVStore store;
+    private final int every;
+
+    private final Map<K, Integer> ids = new HashMap<>();
+    private final List<K> keys = new ArrayList<>();
+    // newest version per key id
+    private long[] latest = new long[16];
+    // version of the last append covered by checkpoint n
+    private final List<Long> checkpointVersions = new ArrayList<>();
+
+    // the open segment since the last checkpoint
+    private long[] segmentVersions;
+    private int[] segmentIds;
+    private int segmentSize;
+    // appends must arrive in version order; the segments rely on it
+    private long lastVersion = Long.MIN_VALUE;
+
+    // state at begin(), while a commit is open
+    private boolean open;
+    private int savedKeys;
+    private int savedCheckpoints;
+    private long[] savedSegmentVersions;
+    private int[] savedSegmentIds;
+    private int savedSegmentSize;
+    private long savedLastVersion;
+    // key id -> its newest version at begin(), for keys known then
+    private final Map<Integer, Long> savedLatest = new HashMap<>();
+
+    SnapshotCheckpoints(KVStore store, int every) {
+        if (every < 1)
+            throw new IllegalArgumentException("every must be positive");
+        this.store = Objects.requireNonNull(store);
+        this.every = every;
+        this.segmentVersions = new long[every];
+        this.segmentIds = new int[every];
+    }
+
+    /**
+     * @return the newest version recorded so far, or Long.MIN_VALUE
+     */
+    long lastVersion() {
+        return lastVersion;
+    }
+
+    /**
+     * Starts recording appends that {@link #rollBack()} can undo, e.g. those of a commit whose
+     * writes may still fail. Ended by {@link #end()} or {@link #rollBack()}.
+     */
+    void begin() {
+        open = true;
+        savedKeys = keys.size();
+        savedCheckpoints = checkpointVersions.size();
+        savedSegmentVersions = segmentVersions;
+        savedSegmentIds = segmentIds;
+        savedSegmentSize = segmentSize;
+        savedLastVersion = lastVersion;
+    }
+
+    void end() {
+        open = false;
+        savedSegmentVersions = null;
+        savedSegmentIds = null;
+        savedLatest.clear();
+    }
+
+    /**
+     * Forgets the appends since {@link #begin()}. Their checkpoint writes must not have reached the
+     * store either.
+     */
+    void rollBack() {
+        for (int id = savedKeys; id < keys.size(); id++) {
+            ids.remove(keys.get(id));
+        }
+        keys.subList(savedKeys, keys.size()).clear();
+        savedLatest.forEach((id, version) -> latest[id] = version);
+        checkpointVersions.subList(savedCheckpoints, checkpointVersions.size()).clear();
+        segmentVersions = savedSegmentVersions;
+        segmentIds = savedSegmentIds;
+        segmentSize = savedSegmentSize;
+        lastVersion = savedLastVersion;
+        end();
+    }
+
+    void recordAppend(K k, long version) {
+        lastVersion = version;
+        Integer id = ids.get(k);
+        if (id == null) {
+            id = keys.size();
+            ids.put(k, id);
+            keys.add(k);
+            if (id == latest.length)
+                latest = Arrays.copyOf(latest, latest.length * 2);
+        } else if (open && id < savedKeys) {
+            savedLatest.putIfAbsent(id, latest[id]);
+        }
+        latest[id] = version;
+        segmentVersions[segmentSize] = version;
+        segmentIds[segmentSize] = id;
+        segmentSize++;
+        if (segmentSize == every)
+            checkpoint();
+    }
+
+    private void checkpoint() {
+        int n = checkpointVersions.size();
+        StringBuilder log = new StringBuilder(segmentSize * 12);
+        for (int i = 0; i < segmentSize; i++) {
+            log.append(segmentVersions[i]).append(':').append(segmentIds[i]).append(',');
+        }
+        StringBuilder state = new StringBuilder(keys.size() * 12);
+        for (int id = 0; id < keys.size(); id++) {
+            state.append(id).append(':').append(latest[id]).append(',');
+        }
+        store.put(LOG_PREFIX + n, log.toString());
+        store.put(PREFIX + n, state.toString());
+        checkpointVersions.add(segmentVersions[segmentSize - 1]);
+        if (open && segmentVersions == savedSegmentVersions) {
+            // keeps the segment begin() saw for rollBack()
+            segmentVersions = new long[every];
+            segmentIds = new int[every];
+        }
+        segmentSize = 0;
+    }
+
+    /**
+     * @return key -> newest version at or below t, for every key that has one, in key order
+     */
+    TreeMap<K, Long> visibleVersions(long t) {
+        long[] state = new long[keys.size()];
+        Arrays.fill(state, Long.MIN_VALUE);
+
+        int c = lastCheckpointAtOrBelow(t);
+        if (c >= 0)
+            parsePairs(store.get(PREFIX + c), (id, version) -> state[(int) id] = version);
+        int segment = c + 1;
+        if (segment < checkpointVersions.size()) {
+            parsePairs(store.get(LOG_PREFIX + segment), (version, id) -> {
+                if (version <= t)
+                    state[(int) id] = version;
+            });
+        } else {
+            for (int i = 0; i < segmentSize && segmentVersions[i] <= t; i++) {
+                state[segmentIds[i]] = segmentVersions[i];
+            }
+        }
+
+        TreeMap<K, Long> visible = new TreeMap<>();
+        for (int id = 0; id < state.length; id++) {
+            if (state[id] != Long.MIN_VALUE)
+                visible.put(keys.get(id), state[id]);
+        }
+        return visible;
+    }
+
+    private int lastCheckpointAtOrBelow(long t) {
+        int lo = 0;
+        int hi = checkpointVersions.size() - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (checkpointVersions.get(mid) <= t) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private interface PairConsumer {
+        void accept(long first, long second);
+    }
+
+    private static void parsePairs(String block, PairConsumer consumer) {
+        if (block == null)
+            throw new IllegalStateException("Missing checkpoint block");
+        int start = 0;
+        while (start < block.length()) {
+            int colon = block.indexOf(':', start);
+            int comma = block.indexOf(',', colon);
+            consumer.accept(Long.parseLong(block, start, colon, 10), Long.parseLong(block, colon + 1, comma, 10));
+            start = comma + 1;
+        }
+    }
+}
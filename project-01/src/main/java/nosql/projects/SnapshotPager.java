@@ -0,0 +1,92 @@
+package nosql.projects;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+import nosql.projects.Material.MultiVersionMap;
+import nosql.projects.Material.SnapshotPage;
+
+/**
+ * Serves a Range-Snapshot page by page. The continuation token carries the snapshot timestamp and
+ * the last key returned, so later pages come from the same snapshot and start right after that key.
+ *
+ * Timestamps are clamped to the clock's stable version on the first page: versions at or below it
+ * never change, and no batch commit at or below it is half written, so a paginated snapshot stays
+ * consistent while appends and commits continue.
+ */
+public final class SnapshotPager<K extends Comparable<? super K>, P> {
+    private static final String TOKEN_VERSION = "1";
+
+    private final MultiVersionMap<K, P> mvm;
+    private final VersionClock clock;
+    private final Function<K, String> keyEncoder;
+    private final Function<String, K> keyDecoder;
+
+    /**
+     * @param clock the clock mvm assigns its versions from
+     * @param keyEncoder turns a key into a string keyDecoder turns back into an equal key
+     */
+    public SnapshotPager(MultiVersionMap<K, P> mvm, VersionClock clock, Function<K, String> keyEncoder, Function<String, K> keyDecoder) {
+        this.mvm = Objects.requireNonNull(mvm);
+        this.clock = Objects.requireNonNull(clock);
+        this.keyEncoder = Objects.requireNonNull(keyEncoder);
+        this.keyDecoder = Objects.requireNonNull(keyDecoder);
+    }
+
+    /**
+     * @param from first key of the range (inclusive)
+     * @param to last key of the range (inclusive)
+     * @param t snapshot timestamp; ignored if a continuationToken is given
+     * @param limit maximum number of records on this page
+     * @param continuationToken token of the previous page, or null for the first page
+     */
+    public SnapshotPage<K, P> rangeSnapshot(K from, K to, long t, int limit, String continuationToken) {
+        if (limit < 1)
+            throw new IllegalArgumentException("limit must be positive");
+        K start = from;
+        boolean startInclusive = true;
+        long timestamp;
+        if (continuationToken == null) {
+            timestamp = Math.min(t, clock.stable());
+        } else {
+            String[] parts = decode(continuationToken);
+            timestamp = Long.parseLong(parts[1]);
+            start = keyDecoder.apply(parts[2]);
+            startInclusive = false;
+            if (start.compareTo(from) < 0) {
+                start = from;
+                startInclusive = true;
+            }
+        }
+
+        // one record more than requested tells whether another page follows
+        List<Map.Entry<K, P>> entries = mvm.rangeSnapshotPage(start, startInclusive, to, true, timestamp, limit + 1);
+        if (entries.size() <= limit)
+            return new SnapshotPage<>(entries, null);
+        entries = entries.subList(0, limit);
+        K last = entries.get(limit - 1).getKey();
+        return new SnapshotPage<>(List.copyOf(entries), encode(timestamp, last));
+    }
+
+    private String encode(long timestamp, K last) {
+        String raw = TOKEN_VERSION + ":" + timestamp + ":" + keyEncoder.apply(last);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decode(String token) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException exception) {
+            throw new IllegalArgumentException("Malformed continuation token", exception);
+        }
+        String[] parts = raw.split(":", 3);
+        if (parts.length != 3 || !TOKEN_VERSION.equals(parts[0]))
+            throw new IllegalArgumentException("Malformed continuation token");
+        return parts;
+    }
+}
@@ -1,8 +1,6 @@
 package nosql.projects;
 
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.AbstractMap;
@@ -11,51 +9,18 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import redis.clients.jedis.Jedis;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import nosql.projects.Material.KVStore;
+import nosql.projects.Material.FlushableKVStore;
+import nosql.projects.Material.LogEntry;
 import nosql.projects.Material.MultiVersionMap;
 import nosql.projects.Material.Serializer;
 import nosql.projects.Material.VersionListFactory;
 
 public class Test {
     public record Payload(String title, String comment, String timestamp){};
-    public interface FlushableKVStore extends KVStore {
-        void flushDB();
-    }
-
-    public static final class jedisKV implements FlushableKVStore {
-        private final Jedis jedis;
-        private final String ns;
-        public jedisKV(String host, int port, String nameSpace) {
-            this.jedis = new Jedis(host, port);
-            this.ns = (nameSpace == null || nameSpace.isEmpty()) ? "" :(nameSpace + ":");
-        }
-        private String k(String k) {
-            return ns + k;
-        }
-
-        @Override
-        public void put(String storeKey, String storeValue) {
-            jedis.set(k(storeKey), storeValue);
-        }
-
-        @Override
-        public String get(String storeKey) {
-            return jedis.get(k(storeKey));
-        }
-
-        @Override
-        public void flushDB() {
-            jedis.flushDB();
-        }
-
-        public void close() {
-            jedis.close();
-        }
-    }
-
     public static final class jacksonSerialiser<P> implements Serializer<P> {
         private final ObjectMapper oMapper = new ObjectMapper();
         private final Class<P> type;
@@ -84,18 +49,12 @@ public class Test {
 
     public static List<Map.Entry<String, Payload>> readData(String path) {
         List<Map.Entry<String, Payload>> l = new ArrayList<>();
-        String line;
-        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+        try (CsvReader reader = CsvReader.open(Path.of(path))) {
             // Skip header
-            br.readLine();
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(",", 4); // key,title,comment,"version"
-                String key = values[0];
-                String title = values[1];
-                String comment = values[2];
-                String timestamp = values[3];
-
-                l.add(new AbstractMap.SimpleEntry<>(key, new Payload(title, comment, timestamp)));
+            reader.next();
+            String[] values;
+            while ((values = reader.next()) != null) {
+                l.add(toEntry(values));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -103,6 +62,13 @@ public class Test {
         return l;
     }
 
+    // key,title,comment,timestamp
+    private static Map.Entry<String, Payload> toEntry(String[] values) {
+        if (values.length < 4)
+            throw new IllegalArgumentException("Expected 4 columns, got " + values.length);
+        return new AbstractMap.SimpleEntry<>(values[0], new Payload(values[1], values[2], values[3]));
+    }
+
     private static long nowTime() {
         return System.nanoTime();
     }
@@ -132,13 +98,18 @@ public class Test {
 
         Serializer<Payload> serializerMain = new jacksonSerialiser<>(Payload.class);
 
-        jedisKV kvLL = new jedisKV(homePath, portNumber, "LL");
-        jedisKV kvFSL = new jedisKV(homePath, portNumber, "FSL");
-        jedisKV kvVW = new jedisKV(homePath, portNumber, "VW");
+        // --in-memory runs everything against InMemoryKVStore, no Redis needed
+        boolean inMemory = List.of(args).contains("--in-memory");
+        // --lsm runs the same workloads against an embedded LsmKVStore, to compare with Redis
+        boolean lsm = List.of(args).contains("--lsm");
+
+        FlushableKVStore kvLL = openStore(inMemory, lsm, homePath, portNumber, "LL");
+        FlushableKVStore kvFSL = openStore(inMemory, lsm, homePath, portNumber, "FSL");
+        FlushableKVStore kvVW = openStore(inMemory, lsm, homePath, portNumber, "VW");
 
         try {
-            VersionListFactory<Payload> llFactory = (store, serializer) -> new BackedVLinkedList<>(store, serializer);
-            VersionListFactory<Payload> fslFactory = (store, serializer) -> new BackedFrugalSkiplist<>(store, serializer);
+            VersionListFactory<Payload> llFactory = BackedVLinkedList.factory();
+            VersionListFactory<Payload> fslFactory = BackedFrugalSkiplist.factory();
 
             kvLL.flushDB();
             MultiVersionMap<String, Payload> mvmLL = new BackedSimpleMVM<>(llFactory, kvLL, serializerMain);
@@ -171,17 +142,76 @@ public class Test {
             }
             System.out.println("VWeaver when t = 20, range [KEY002, KEY004]:");
             printRange(vWeaver, "KEY002", true, "KEY004", true, 20L);
+            System.out.println("VWeaver keys visible at t = 20: " + vWeaver.count(20L));
             
             benchmarkVariant("BackedVLinkedList", rowList, probes, runs, llFactory, kvLL, serializerMain);
             benchmarkVariant("BackedFrugalSkipList", rowList, probes, runs, fslFactory, kvFSL, serializerMain);
+            // heap-only lists: the store is only flushed, never written
+            benchmarkVariant("ArenaFrugalSkiplist", rowList, probes, runs, ArenaFrugalSkiplist.factory(), kvFSL, serializerMain);
             benchmarkVWeaver("BackedVWeaverMVM", rowList, probes, runs, kvVW, serializerMain);
 
+            if (inMemory) {
+                kvLL.flushDB();
+                reportStoreCost("BackedVLinkedList", (InMemoryKVStore) kvLL, new BackedSimpleMVM<>(llFactory, kvLL, serializerMain), rowList);
+                kvFSL.flushDB();
+                reportStoreCost("BackedFrugalSkipList", (InMemoryKVStore) kvFSL, new BackedSimpleMVM<>(fslFactory, kvFSL, serializerMain), rowList);
+                kvFSL.flushDB();
+                reportStoreCost("TieredVersionList (4 hot)", (InMemoryKVStore) kvFSL, new BackedSimpleMVM<>(TieredVersionList.<Payload>factory(4, 8), kvFSL, serializerMain), rowList);
+                kvFSL.flushDB();
+                CompressingSerializer<Payload> compressed = new CompressingSerializer<>(serializerMain, kvFSL, 32);
+                compressed.train(rowList.subList(0, Math.min(20, rowList.size())).stream().map(Map.Entry::getValue).toList());
+                reportStoreCost("BackedFrugalSkipList (compressed)", (InMemoryKVStore) kvFSL, new BackedSimpleMVM<>(fslFactory, kvFSL, compressed), rowList);
+                kvVW.flushDB();
+                reportStoreCost("BackedVWeaverMVM", (InMemoryKVStore) kvVW, new BackedVWeaverMVM<>(kvVW, serializerMain), rowList);
+
+                kvFSL.flushDB();
+                IndexedMultiVersionMap<String, Payload> indexed = new IndexedMultiVersionMap<>(new BackedSimpleMVM<String, Payload>(fslFactory, kvFSL, serializerMain))
+                        .withIndex("title", Payload::title);
+                for (var e : rowList)
+                    indexed.append(e.getKey(), e.getValue());
+                System.out.println("\nIndex query: title = Some Title for KEY003, t = 20");
+                ((InMemoryKVStore) kvFSL).resetStats();
+                indexed.query("title", "Some Title for KEY003", 20L).forEachRemaining(e -> System.out.println(e.getKey() + " = " + e.getValue()));
+                printStoreStats("query(title, 20)", (InMemoryKVStore) kvFSL);
+
+                kvFSL.flushDB();
+                MultiVersionMap<String, Payload> ingested = new BackedSimpleMVM<>(fslFactory, kvFSL, serializerMain);
+                try (CsvReader reader = CsvReader.open(csvPath)) {
+                    CsvIngestPipeline.Stats stats = new CsvIngestPipeline<>(ingested, Test::toEntry, Runtime.getRuntime().availableProcessors(), 1024, 16).run(reader, true);
+                    System.out.printf(Locale.ROOT, "%nIngest: %d rows in %.3f ms (%.0f rows/s) %n", stats.rows(), milliSeconds(stats.nanos()), stats.rowsPerSecond());
+                }
+
+                // the replica serves snapshot reads from its own store, fed by the primary's shipped log
+                kvFSL.flushDB();
+                ReplicaMVM<String, Payload> replica = new ReplicaMVM<>((store, clock) -> new BackedSimpleMVM<String, Payload>(fslFactory, store, serializerMain, clock), new InMemoryKVStore());
+                LinkedBlockingQueue<LogEntry<String, Payload>> log = new LinkedBlockingQueue<>();
+                Thread applier = Thread.ofVirtual().start(() -> {
+                    try {
+                        while (true)
+                            replica.apply(log.take());
+                    } catch (InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                MultiVersionMap<String, Payload> shipping = new LogShippingMVM<>(new BackedSimpleMVM<String, Payload>(fslFactory, kvFSL, serializerMain), log::add);
+                long lastVersion = 0L;
+                for (var e : rowList)
+                    lastVersion = shipping.append(e.getKey(), e.getValue());
+                if (!replica.awaitWatermark(lastVersion, 10, TimeUnit.SECONDS))
+                    throw new IllegalStateException("Replica did not catch up to " + lastVersion);
+                applier.interrupt();
+                System.out.println("\nReplica (watermark " + replica.watermark() + ") when t = 20, range [KEY002, KEY004]:");
+                ((InMemoryKVStore) kvFSL).resetStats();
+                printRange(replica, "KEY002", true, "KEY004", true, 20L);
+                printStoreStats("replica range(20), primary store", (InMemoryKVStore) kvFSL);
+            }
+
         } catch (Exception exception) {
             throw new RuntimeException(exception);
         } finally {
-            kvFSL.close();
-            kvLL.close();
-            kvVW.close();
+            closeStore(kvFSL);
+            closeStore(kvLL);
+            closeStore(kvVW);
         }
         
         /* -- Test -- */
@@ -199,6 +229,44 @@ public class Test {
 
     }
     
+    private static FlushableKVStore openStore(boolean inMemory, boolean lsm, String host, int port, String nameSpace) {
+        if (inMemory)
+            return new InMemoryKVStore();
+        if (lsm)
+            return new LsmKVStore(Path.of(System.getProperty("java.io.tmpdir"), "mvm-lsm", nameSpace));
+        return new PooledJedisKV(host, port, nameSpace);
+    }
+
+    private static void closeStore(FlushableKVStore kv) {
+        if (kv instanceof PooledJedisKV pooled)
+            pooled.close();
+        else if (kv instanceof LsmKVStore lsm)
+            lsm.close();
+    }
+
+    private static void reportStoreCost(String label, InMemoryKVStore kv, MultiVersionMap<String, Payload> mvm, List<Map.Entry<String, Payload>> rowList) {
+        for (var e : rowList)
+            mvm.append(e.getKey(), e.getValue());
+
+        System.out.println("\nStore accesses: " + label);
+        kv.resetStats();
+        mvm.get("KEY003", 20L);
+        printStoreStats("get(KEY003, 20)", kv);
+
+        kv.resetStats();
+        Iterator<Map.Entry<String, Payload>> iter = mvm.snapshot(20L);
+        while (iter.hasNext()) {
+            iter.next();
+        }
+        printStoreStats("snapshot(20)", kv);
+    }
+
+    private static void printStoreStats(String op, InMemoryKVStore kv) {
+        InMemoryKVStore.OpStats gets = kv.stats(InMemoryKVStore.OpType.GET);
+        InMemoryKVStore.OpStats puts = kv.stats(InMemoryKVStore.OpType.PUT);
+        System.out.printf(Locale.ROOT, "%s: gets = %d (%d bytes, %d round trips), puts = %d %n", op, gets.ops(), gets.bytes(), gets.roundTrips(), puts.ops());
+    }
+
     private static void printRange(MultiVersionMap<String, Payload> mvm, String from, boolean fromInc, String to, boolean toInc, long t) {
         Iterator<Map.Entry<String, Payload>> it = mvm.rangeSnapshot(from, fromInc, to, toInc, t);
         while (it.hasNext()) {
@@ -0,0 +1,301 @@
+package nosql.projects;
+
+import java.util.Arrays;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nosql.projects.Material.KVStore;
+import nosql.projects.Material.MvmMetrics;
+import nosql.projects.Material.RecordVersionList;
+import nosql.projects.Material.Serializer;
+import nosql.projects.Material.VersionList;
+import nosql.projects.Material.VersionListFactory;
+import nosql.projects.Material.VersionedRecord;
+
+/**
+ * Version list in two tiers: the newest versions (the last hotVersions, or those within hotWindow
+ * of the newest) are held in memory, older ones in a {@link BackedFrugalSkiplist}. Lookups that
+ * land in the hot tier never touch the store; only history older than the hot tier is read from it.
+ *
+ * Every appended version is persisted as its own hot node, numbered consecutively, so an append is
+ * a single put however large the hot tier is. A small meta records the number of the oldest hot
+ * node and the newest spilled version; it is only rewritten when spillBatch versions have fallen
+ * out of the hot tier and are moved to the skiplist, in one batch with the appended node. The
+ * store has no delete, so the same batch empties the hot nodes of the spilled versions instead of
+ * keeping their payloads twice. A reopen reads the hot nodes from the oldest one until a number is
+ * missing.
+ *
+ * A lookup may open the cold tier, which drops versions an interrupted spill already moved, so
+ * lookups and appends are synchronized on the list.
+ */
+public final class TieredVersionList<P> implements RecordVersionList<P> {
+
+    private static final String HOT_KEY = "__tiered_hot__";
+    private static final String HOT_PREFIX = "H:";
+    private static final String COLD_PREFIX = "C:";
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private static final class HotMeta {
+        public long spilledThrough;
+        public long firstHot;
+
+        @SuppressWarnings("unused")
+        public HotMeta() {}
+
+        public HotMeta(long spilledThrough, long firstHot) {
+            this.spilledThrough = spilledThrough;
+            this.firstHot = firstHot;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private static final class HotNode {
+        public long version;
+        public String payload;
+
+        @SuppressWarnings("unused")
+        public HotNode() {}
+
+        public HotNode(long version, String payload) {
+            this.version = version;
+            this.payload = payload;
+        }
+    }
+
+    private final WriteBatchKVStore store;
+    private final Serializer<P> serializer;
+    private final MvmMetrics metrics;
+    private final ObjectMapper oMapper = new ObjectMapper();
+    private final int hotVersions;
+    private final long hotWindow;
+    private final int spillBatch;
+
+    private long[] versions = new long[4];
+    private String[] payloads = new String[4];
+    private int size;
+    // number of the hot node holding versions[0]
+    private long firstHot;
+    // newest version moved to the cold tier, Long.MIN_VALUE while it is empty
+    private long spilledThrough = Long.MIN_VALUE;
+    private BackedFrugalSkiplist<P> cold;
+
+    private TieredVersionList(KVStore store, Serializer<P> serializer, MvmMetrics metrics, int hotVersions, long hotWindow, int spillBatch) {
+        if (hotVersions < 1 || hotWindow < 0 || spillBatch < 1)
+            throw new IllegalArgumentException("Tier bounds must be positive");
+        this.store = new WriteBatchKVStore(store);
+        this.serializer = serializer;
+        this.metrics = metrics;
+        this.hotVersions = hotVersions;
+        this.hotWindow = hotWindow;
+        this.spillBatch = spillBatch;
+        try {
+            String m = store.get(HOT_KEY);
+            metrics.storeGets(1);
+            if (m != null) {
+                HotMeta meta = oMapper.readValue(m, HotMeta.class);
+                this.spilledThrough = meta.spilledThrough;
+                this.firstHot = meta.firstHot;
+            }
+            while (true) {
+                String n = store.get(HOT_PREFIX + (firstHot + size));
+                metrics.storeGets(1);
+                if (n == null)
+                    break;
+                if (n.isEmpty()) {
+                    // emptied by a spill whose meta was not stored; the version is in the cold tier
+                    if (size > 0)
+                        break;
+                    firstHot++;
+                    continue;
+                }
+                HotNode node = oMapper.readValue(n, HotNode.class);
+                add(node.version, node.payload);
+            }
+        } catch (Exception exception) {
+            throw new RuntimeException("Corrupt hot tier", exception);
+        }
+    }
+
+    /**
+     * Lists that keep the newest hotVersions versions in memory and spill older ones spillBatch at
+     * a time.
+     */
+    public static <P> VersionListFactory<P> factory(int hotVersions, int spillBatch) {
+        return factory(hotVersions, Long.MAX_VALUE, spillBatch);
+    }
+
+    /**
+     * Lists that keep the versions within hotWindow of the newest one in memory and spill older ones
+     * spillBatch at a time.
+     */
+    public static <P> VersionListFactory<P> windowFactory(long hotWindow, int spillBatch) {
+        return factory(Integer.MAX_VALUE, hotWindow, spillBatch);
+    }
+
+    private static <P> VersionListFactory<P> factory(int hotVersions, long hotWindow, int spillBatch) {
+        return new VersionListFactory<>() {
+            @Override
+            public VersionList<P> create(KVStore store, Serializer<P> serializer) {
+                return new TieredVersionList<>(store, serializer, MvmMetrics.DISABLED, hotVersions, hotWindow, spillBatch);
+            }
+
+            @Override
+            public VersionList<P> create(KVStore store, Serializer<P> serializer, MvmMetrics metrics) {
+                return new TieredVersionList<>(store, serializer, metrics, hotVersions, hotWindow, spillBatch);
+            }
+        };
+    }
+
+    @Override
+    public synchronized void append(P p, long timestamp) {
+        String payload = serializer.serialize(p);
+        long number = firstHot + size;
+        add(timestamp, payload);
+        if (spillable() < spillBatch) {
+            try {
+                writeNode(number, timestamp, payload);
+            } catch (RuntimeException exception) {
+                payloads[--size] = null;
+                throw exception;
+            }
+            return;
+        }
+        // kept until the batch is stored; the spill changes the tiers in memory first
+        long[] keptVersions = versions.clone();
+        String[] keptPayloads = payloads.clone();
+        long keptFirstHot = firstHot;
+        long keptSpilledThrough = spilledThrough;
+        store.begin();
+        try {
+            spill();
+            persistMeta();
+            writeNode(number, timestamp, payload);
+            // after the meta, so a store that applies the batch partially never empties a live node
+            for (long spilled = keptFirstHot; spilled < firstHot; spilled++) {
+                store.put(HOT_PREFIX + spilled, "");
+            }
+            metrics.storePuts((int) (firstHot - keptFirstHot));
+            store.flush();
+        } catch (RuntimeException exception) {
+            store.discard();
+            versions = keptVersions;
+            payloads = keptPayloads;
+            size = (int) (number - keptFirstHot);
+            payloads[size] = null;
+            firstHot = keptFirstHot;
+            spilledThrough = keptSpilledThrough;
+            // its meta may name nodes that were never stored; reopened from the store when needed
+            cold = null;
+            throw exception;
+        }
+    }
+
+    @Override
+    public P findVisible(long timestamp) {
+        VersionedRecord visible = findVisibleRecord(timestamp);
+        return (visible == null) ? null : serializer.deSerialize(visible.payload());
+    }
+
+    @Override
+    public synchronized VersionedRecord findVisibleRecord(long timestamp) {
+        if (size > 0 && timestamp >= versions[0]) {
+            int i = Arrays.binarySearch(versions, 0, size, timestamp);
+            if (i < 0)
+                i = -i - 2;
+            return new VersionedRecord(versions[i], payloads[i]);
+        }
+        if (spilledThrough == Long.MIN_VALUE)
+            return null;
+        return cold().findVisibleRecord(timestamp);
+    }
+
+    @Override
+    public synchronized VersionedRecord readVersion(long version) {
+        if (size > 0 && version >= versions[0]) {
+            int i = Arrays.binarySearch(versions, 0, size, version);
+            return (i < 0) ? null : new VersionedRecord(version, payloads[i]);
+        }
+        if (spilledThrough == Long.MIN_VALUE)
+            return null;
+        return cold().readVersion(version);
+    }
+
+    private void add(long version, String payload) {
+        if (size == versions.length) {
+            versions = Arrays.copyOf(versions, size * 2);
+            payloads = Arrays.copyOf(payloads, size * 2);
+        }
+        versions[size] = version;
+        payloads[size] = payload;
+        size++;
+    }
+
+    /**
+     * @return how many of the oldest hot versions are outside the hot bounds
+     */
+    private int spillable() {
+        int spillable = Math.max(0, size - hotVersions);
+        if (hotWindow != Long.MAX_VALUE && size > 0) {
+            long oldestHot = versions[size - 1] - hotWindow;
+            int i = Arrays.binarySearch(versions, 0, size, oldestHot);
+            spillable = Math.max(spillable, (i < 0) ? -i - 1 : i);
+        }
+        return spillable;
+    }
+
+    private void spill() {
+        BackedFrugalSkiplist<P> skiplist = cold();
+        // counted after cold(), which may have dropped versions an interrupted spill already moved
+        int count = spillable();
+        for (int i = 0; i < count; i++) {
+            skiplist.appendSerialized(payloads[i], versions[i]);
+        }
+        if (count > 0)
+            spilledThrough = versions[count - 1];
+        drop(count);
+    }
+
+    private BackedFrugalSkiplist<P> cold() {
+        if (cold == null) {
+            cold = new BackedFrugalSkiplist<>(new PrefixedKVStore(store, COLD_PREFIX), serializer, metrics);
+            // a spill whose meta was not written leaves its versions in both tiers
+            long latest = cold.latestVersion();
+            int moved = 0;
+            while (moved < size && versions[moved] <= latest) {
+                moved++;
+            }
+            drop(moved);
+            spilledThrough = Math.max(spilledThrough, latest);
+        }
+        return cold;
+    }
+
+    private void drop(int count) {
+        if (count == 0)
+            return;
+        System.arraycopy(versions, count, versions, 0, size - count);
+        System.arraycopy(payloads, count, payloads, 0, size - count);
+        Arrays.fill(payloads, size - count, size, null);
+        size -= count;
+        firstHot += count;
+    }
+
+    private void writeNode(long number, long version, String payload) {
+        try {
+            store.put(HOT_PREFIX + number, oMapper.writeValueAsString(new HotNode(version, payload)));
+            metrics.storePuts(1);
+        } catch (Exception exception) {
+            throw new RuntimeException("Write hot node failed", exception);
+        }
+    }
+
+    private void persistMeta() {
+        try {
+            store.put(HOT_KEY, oMapper.writeValueAsString(new HotMeta(spilledThrough, firstHot)));
+            metrics.storePuts(1);
+        } catch (Exception exception) {
+            throw new RuntimeException("Persist hot tier failed", exception);
+        }
+    }
+}
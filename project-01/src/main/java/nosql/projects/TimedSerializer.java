@@ -0,0 +1,34 @@
+package nosql.projects;
+
+import nosql.projects.Material.MvmMetrics;
+import nosql.projects.Material.Serializer;
+
+final class TimedSerializer<P> implements Serializer<P> {
+    private final Serializer<P> serializer;
+    private final MvmMetrics metrics;
+
+    private TimedSerializer(Serializer<P> serializer, MvmMetrics metrics) {
+        this.serializer = serializer;
+        this.metrics = metrics;
+    }
+
+    static <P> Serializer<P> wrap(Serializer<P> serializer, MvmMetrics metrics) {
+        return metrics.enabled() ? new TimedSerializer<>(serializer, metrics) : serializer;
+    }
+
+    @Override
+    public String serialize(P p) {
+        long start = System.nanoTime();
+        String s = serializer.serialize(p);
+        metrics.serialization(System.nanoTime() - start);
+        return s;
+    }
+
+    @Override
+    public P deSerialize(String serializedP) {
+        long start = System.nanoTime();
+        P p = serializer.deSerialize(serializedP);
+        metrics.serialization(System.nanoTime() - start);
+        return p;
+    }
+}
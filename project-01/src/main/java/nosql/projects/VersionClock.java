@@ -0,0 +1,72 @@
+package nosql.projects;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of the versions a MultiVersionMap assigns on append. Sharing one clock between several
+ * maps gives them a single, global version order.
+ */
+public final class VersionClock {
+    private final AtomicLong next;
+    // reserved versions whose writes are not complete yet
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+
+    public VersionClock() {
+        this(1L);
+    }
+
+    public VersionClock(long firstVersion) {
+        this.next = new AtomicLong(firstVersion);
+    }
+
+    /**
+     * @return a fresh version, larger than every version handed out before
+     */
+    public long next() {
+        return next.getAndIncrement();
+    }
+
+    /**
+     * Makes sure every version handed out from now on is larger than version, e.g. after loading
+     * data that brought its own versions.
+     */
+    public void advanceTo(long version) {
+        next.accumulateAndGet(version + 1, Math::max);
+    }
+
+    /**
+     * @return the last version handed out (or firstVersion - 1 if none was yet)
+     */
+    public long current() {
+        return next.get() - 1;
+    }
+
+    /**
+     * Like {@link #next()}, for a version whose writes take a while, e.g. a multi-key commit. Until
+     * it is {@link #publish(long) published}, {@link #stable()} stays below it.
+     */
+    public synchronized long reserve() {
+        long version = next();
+        inFlight.add(version);
+        return version;
+    }
+
+    /**
+     * Ends the reservation of version. A version whose writes failed halfway is better never
+     * published: stable() then stays below it for good, and no read clamped to it sees the half.
+     */
+    public void publish(long version) {
+        inFlight.remove(version);
+    }
+
+    /**
+     * @return the newest version that no reserved version at or below it is still being written
+     *         for, i.e. a timestamp at which reads see every commit either completely or not at all
+     */
+    public synchronized long stable() {
+        long current = current();
+        Long oldest = inFlight.ceiling(Long.MIN_VALUE);
+        return (oldest == null) ? current : Math.min(current, oldest - 1);
+    }
+}
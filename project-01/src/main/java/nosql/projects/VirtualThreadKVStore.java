@@ -0,0 +1,38 @@
+package nosql.projects;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import nosql.projects.Material.AsyncKVStore;
+import nosql.projects.Material.KVStore;
+
+/**
+ * Default {@link AsyncKVStore} adapter: every call of the wrapped synchronous store runs on its own
+ * virtual thread, so a blocked round trip parks a virtual thread instead of a carrier thread.
+ * The wrapped store has to be safe for concurrent use.
+ */
+public final class VirtualThreadKVStore implements AsyncKVStore, AutoCloseable {
+    private final KVStore store;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public VirtualThreadKVStore(KVStore store) {
+        this.store = Objects.requireNonNull(store);
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String storeKey, String storeValue) {
+        return CompletableFuture.runAsync(() -> store.put(storeKey, storeValue), executor);
+    }
+
+    @Override
+    public CompletableFuture<String> getAsync(String storeKey) {
+        return CompletableFuture.supplyAsync(() -> store.get(storeKey), executor);
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
@@ -0,0 +1,139 @@
+package nosql.projects;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import nosql.projects.Material.BatchKVStore;
+import nosql.projects.Material.KVStore;
+import nosql.projects.Material.TraversableKVStore;
+
+/**
+ * Pass-through view on a store that can collect writes: between {@link #begin()} and
+ * {@link #flush()} puts are buffered (a key written twice is sent once) and reads see the buffered
+ * values, and flush sends the whole buffer as one batch. Lets a map write all nodes and metas of a
+ * multi-key commit with a single round trip.
+ */
+final class WriteBatchKVStore implements BatchKVStore, TraversableKVStore {
+    private final KVStore store;
+    private Map<String, String> pending;
+
+    WriteBatchKVStore(KVStore store) {
+        this.store = Objects.requireNonNull(store);
+    }
+
+    void begin() {
+        if (pending != null)
+            throw new IllegalStateException("Batch already open");
+        pending = new LinkedHashMap<>();
+    }
+
+    /**
+     * Writes the buffered entries and leaves batch mode. If the store fails, the batch stays open
+     * until {@link #discard()}.
+     */
+    void flush() {
+        Map<String, String> entries = pending;
+        if (entries != null && !entries.isEmpty()) {
+            if (store instanceof BatchKVStore batch) {
+                batch.putAll(entries);
+            } else {
+                for (Map.Entry<String, String> e : entries.entrySet()) {
+                    store.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        pending = null;
+    }
+
+    /**
+     * Leaves batch mode without writing anything.
+     */
+    void discard() {
+        pending = null;
+    }
+
+    /**
+     * @return true if the open batch holds a write to a key starting with prefix
+     */
+    boolean buffersUnder(String prefix) {
+        if (pending == null)
+            return false;
+        for (String storeKey : pending.keySet()) {
+            if (storeKey.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the store this view forwards to; its writes bypass any open batch
+     */
+    KVStore unbuffered() {
+        return store;
+    }
+
+    @Override
+    public void put(String storeKey, String storeValue) {
+        if (pending != null)
+            pending.put(storeKey, storeValue);
+        else
+            store.put(storeKey, storeValue);
+    }
+
+    @Override
+    public String get(String storeKey) {
+        if (pending != null) {
+            String buffered = pending.get(storeKey);
+            if (buffered != null)
+                return buffered;
+        }
+        return store.get(storeKey);
+    }
+
+    @Override
+    public void putAll(Map<String, String> entries) {
+        if (pending != null) {
+            pending.putAll(entries);
+        } else if (store instanceof BatchKVStore batch) {
+            batch.putAll(entries);
+        } else {
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                store.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    @Override
+    public List<String> getAll(List<String> storeKeys) {
+        if (pending == null && store instanceof BatchKVStore batch)
+            return batch.getAll(storeKeys);
+        List<String> values = new ArrayList<>(storeKeys.size());
+        for (String storeKey : storeKeys) {
+            values.add(get(storeKey));
+        }
+        return values;
+    }
+
+    // while a batch is open the chain may end in buffered nodes the store has not seen
+    @Override
+    public boolean traversalSupported() {
+        return pending == null && store instanceof TraversableKVStore traversable && traversable.traversalSupported();
+    }
+
+    @Override
+    public String findVisible(String headKey, String nodePrefix, long t) {
+        if (traversalSupported())
+            return ((TraversableKVStore) store).findVisible(headKey, nodePrefix, t);
+        return ChainWalk.findVisible(this::get, headKey, nodePrefix, t);
+    }
+
+    @Override
+    public List<String> findVisibleAll(List<String> headKeys, List<String> nodePrefixes, long t) {
+        if (traversalSupported())
+            return ((TraversableKVStore) store).findVisibleAll(headKeys, nodePrefixes, t);
+        return TraversableKVStore.super.findVisibleAll(headKeys, nodePrefixes, t);
+    }
+}